@@ -0,0 +1,45 @@
+package bench;
+
+import mod.Modifier;
+import mod.Track;
+import org.openjdk.jmh.annotations.*;
+import wave.Wave;
+import wave.WaveEffect;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for WaveEffect.autoCut and the streaming Modifier.autoCut on the speech-like fixture (one pause every 1.2 s).
+ * @author Tobias Haider
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx16g", "-Xss64m"})
+public class AutoCutBenchmark {
+
+    @Param({"1", "60", "600", "3600"})
+    public int seconds;
+
+    private Track track;
+    private Wave wave;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        track = Fixtures.track(seconds);
+        wave = Wave.createWave(track);
+    }
+
+    @Benchmark
+    public Wave autoCut() {
+        return WaveEffect.autoCut(wave, 0.2, 2);
+    }
+
+    @Benchmark
+    public Track streamingAutoCut() {
+        return Modifier.autoCut(track, 2, 0.2f);
+    }
+}
@@ -0,0 +1,53 @@
+package bench;
+
+import mod.Converter;
+import mod.Track;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for loading and saving .wav files.
+ * @author Tobias Haider
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx16g"})
+public class ConverterBenchmark {
+
+    @Param({"1", "60", "600", "3600"})
+    public int seconds;
+
+    private File file;
+    private Track track;
+    private File outDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = Fixtures.wav(seconds);
+        track = Converter.getTrackFromWav(file);
+        outDir = Files.createTempDirectory("cutplay-bench").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new File(outDir, "out.wav").delete();
+        outDir.delete();
+    }
+
+    @Benchmark
+    public Track getTrackFromWav() {
+        return Converter.getTrackFromWav(file);
+    }
+
+    @Benchmark
+    public void save() {
+        Converter.save(track, "out", outDir);
+    }
+}
@@ -0,0 +1,101 @@
+package bench;
+
+import mod.Converter;
+import mod.Track;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Generates reproducible synthetic .wav files used by all benchmarks.
+ * The signal imitates speech: tone bursts of 0.8 s separated by 0.4 s of near silence plus a little noise,
+ * so autoCut has something to cut. The same length and seed always produce the same bytes.
+ * Files are written once into the temp directory and reused by later runs.
+ * @author Tobias Haider
+ */
+public class Fixtures {
+    public static final AudioFormat FORMAT = new AudioFormat(44100, 16, 2, true, false);
+    private static final long SEED = 42;
+
+    /**
+     * Returns a synthetic .wav file, creating it if necessary
+     * @param seconds length of the file in seconds
+     * @return .wav file
+     * @throws IOException if the file can not be written
+     */
+    public static File wav(int seconds) throws IOException {
+        File f = new File(System.getProperty("java.io.tmpdir"), "cutplay-bench-" + seconds + "s-" + SEED + ".wav");
+        if(!f.exists()) {
+            File tmp = new File(f.getPath() + ".part");
+            long frames = (long) seconds * (long) FORMAT.getSampleRate();
+            AudioSystem.write(new AudioInputStream(new Signal(frames), FORMAT, frames), AudioFileFormat.Type.WAVE, tmp);
+            if(!tmp.renameTo(f)) {
+                throw new IOException("could not create " + f);
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Loads a synthetic Track
+     * @param seconds length of the Track in seconds
+     * @return Track object
+     * @throws IOException if the file can not be written
+     */
+    public static Track track(int seconds) throws IOException {
+        return Converter.getTrackFromWav(wav(seconds));
+    }
+
+    /**
+     * Streams the synthetic signal, so even hour long fixtures never need to fit in memory while writing.
+     */
+    private static class Signal extends InputStream {
+        private final long size;
+        private final Random random = new Random(SEED);
+        private long pos = 0;
+        private int pending = -1;   //MSB of the current sample
+
+        Signal(long frames) {
+            this.size = frames * FORMAT.getFrameSize();
+        }
+
+        @Override
+        public int read() {
+            if(pos >= size) {
+                return -1;
+            }
+            int result;
+            if(pending >= 0) {
+                result = pending;
+                pending = -1;
+            } else {
+                long frame = pos / FORMAT.getFrameSize();
+                double t = frame / FORMAT.getSampleRate();
+                boolean burst = (t % 1.2) < 0.8;
+                int value = (int) ((burst ? 12000 : 0) * Math.sin(2 * Math.PI * 220 * t) + random.nextGaussian() * 60);
+                result = value & 255;
+                pending = (value >> 8) & 255;
+            }
+            pos++;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(pos >= size) {
+                return -1;
+            }
+            int n = (int) Math.min(len, size - pos);
+            for(int i = 0; i < n; i++) {
+                b[off + i] = (byte) read();
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package bench;
+
+import mod.Edit;
+import mod.Modifier;
+import mod.Track;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the Modifier functions and the fused Edit chain doing the same work.
+ * @author Tobias Haider
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx16g"})
+public class ModifierBenchmark {
+
+    @Param({"1", "60", "600", "3600"})
+    public int seconds;
+
+    private Track track;
+    private List<Track> quarters;   //four Tracks with a total length of seconds
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        track = Fixtures.track(seconds);
+        Track quarter = Modifier.cut(track, seconds / 4f, seconds);
+        quarters = Arrays.asList(quarter, quarter, quarter, quarter);
+    }
+
+    @Benchmark
+    public Track concat() {
+        return Modifier.concat(quarters);
+    }
+
+    @Benchmark
+    public Track cut() {
+        return Modifier.cut(track, seconds / 3f, seconds / 2f);
+    }
+
+    @Benchmark
+    public Track chainSeparate() {
+        Track t = Modifier.volume(track, 80);
+        t = Modifier.fadeIn(t, seconds / 10f);
+        t = Modifier.fadeOut(t, seconds * 0.9f);
+        return Modifier.addSil(t, 0, 1);
+    }
+
+    @Benchmark
+    public Track chainFused() {
+        return Edit.of(track).volume(80).fadeIn(seconds / 10f).fadeOut(seconds * 0.9f).addSil(0, 1).render();
+    }
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import batch.Recipe;
+import mod.Track;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares applying a Recipe to a list of Tracks sequentially and on a work-stealing pool, like batch.Batch does.
+ * @author Tobias Haider
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx16g"})
+public class ParallelBenchmark {
+
+    @Param({"1", "60", "600"})
+    public int seconds;
+
+    @Param({"8"})
+    public int tracks;
+
+    private final Recipe recipe = Recipe.parse("volume=80;fadeIn=0.5;fadeOut=0.5;addSil=0,1");
+    private final List<Track> list = new ArrayList<>();
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Track t = Fixtures.track(seconds);
+        for(int i = 0; i < tracks; i++) {
+            list.add(t);
+        }
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public List<Track> sequential() {
+        List<Track> result = new ArrayList<>();
+        for(Track t : list) {
+            result.add(recipe.apply(t));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<Track> parallel() throws Exception {
+        return pool.submit(() -> list.parallelStream().map(recipe::apply).collect(Collectors.toList())).get();
+    }
+}
@@ -0,0 +1,46 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import wave.Wave;
+import wave.WaveEffect;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for Wave.modify and the WaveEffect functions built on it.
+ * @author Tobias Haider
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx16g"})
+public class WaveBenchmark {
+
+    @Param({"1", "60", "600", "3600"})
+    public int seconds;
+
+    private Wave wave;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        wave = Wave.createWave(Fixtures.track(seconds));
+    }
+
+    @Benchmark
+    public Wave modify() {
+        return wave.modify(a -> a / 2);
+    }
+
+    @Benchmark
+    public Wave amplify() {
+        return WaveEffect.amplify(wave, 80);
+    }
+
+    @Benchmark
+    public Wave fadeIn() {
+        return WaveEffect.fadeIn(wave, 1);
+    }
+}
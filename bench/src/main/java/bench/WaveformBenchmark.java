@@ -0,0 +1,68 @@
+package bench;
+
+import mod.Track;
+import org.openjdk.jmh.annotations.*;
+import ui.Waveform;
+import wave.Peaks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for building the waveform overview.
+ * The UI draws from Peaks: one pass over the Track (as Track.getPeaks on first use) plus one line per column.
+ * The old path with one line object per sample is kept for comparison, one hour of it does not fit
+ * in a reasonable heap and is left out.
+ * @author Tobias Haider
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx16g", "-Djava.awt.headless=true"})
+public class WaveformBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Overview {
+        @Param({"1", "60", "600", "3600"})
+        public int seconds;
+
+        private Track track;
+        private Waveform waveform;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            track = Fixtures.track(seconds);
+            waveform = new Waveform();
+            waveform.setSize(500, 100);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Samples {
+        @Param({"1", "60", "600"})
+        public int seconds;
+
+        private byte[] data;
+        private Waveform waveform;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            data = Fixtures.track(seconds).getData();
+            waveform = new Waveform();
+            waveform.setSize(500, 100);
+        }
+    }
+
+    @Benchmark
+    public Waveform createWaveFormFromPeaks(Overview s) {
+        s.waveform.createWaveForm(Peaks.analyze(s.track, Peaks.COLUMNS));
+        return s.waveform;
+    }
+
+    @Benchmark
+    public Waveform createWaveForm(Samples s) {
+        s.waveform.createWaveForm(s.data);
+        return s.waveform;
+    }
+}
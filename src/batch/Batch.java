@@ -0,0 +1,188 @@
+package batch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mod.Converter;
+import mod.Metrics;
+import mod.Track;
+
+/**
+ * Headless entry point applying a Recipe to a list of files or directories.
+ * Files are processed concurrently on a work-stealing ForkJoinPool.
+ * The number of jobs in flight is limited by the estimated memory each job needs, not only by the number of threads.
+ * Usage: java batch.Batch -r "volume=80;fadeIn=2" [-o outputDir] [-t threads] [-f] files/directories...
+ * With -f all steps run on 32 bit float data, results are dithered to 16 bit when saved.
+ * @author Tobias Haider
+ */
+public class Batch {
+
+	private static final int WAV_FACTOR = 4;	//Estimated heap usage per byte of a .wav file (data, copies, result)
+	private static final int MP3_FACTOR = 40;	//.mp3 files expand roughly 10 times when decoded
+
+	private final Recipe recipe;
+	private final File outDir;
+	private final ForkJoinPool pool;
+	private final Semaphore memory;	//One permit per KiB of the memory budget
+	private final int budget;	//Memory budget in KiB
+	private final AtomicInteger done = new AtomicInteger(), failed = new AtomicInteger();
+	private final AtomicLong inputBytes = new AtomicLong(), audioMillis = new AtomicLong();
+
+	/**
+	 * @param recipe Recipe applied to every file
+	 * @param outDir Directory for the results, null to use the directory of each input file
+	 * @param threads Number of worker threads
+	 */
+	public Batch(Recipe recipe, File outDir, int threads) {
+		this.recipe = recipe;
+		this.outDir = outDir;
+		this.pool = new ForkJoinPool(threads);
+		this.budget = memoryBudget();
+		this.memory = new Semaphore(budget);
+	}
+
+	/**
+	 * Main method for headless batch processing
+	 * @param args Command line arguments
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");	//Never initialize a display
+
+		String recipe = null;
+		File outDir = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<File> inputs = new ArrayList<>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-r") && i + 1 < args.length) {
+				recipe = args[++i];
+			} else if(args[i].equals("-o") && i + 1 < args.length) {
+				outDir = new File(args[++i]);
+			} else if(args[i].equals("-t") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-f")) {
+				Converter.setFloatProcessing(true);
+			} else {
+				inputs.add(new File(args[i]));
+			}
+		}
+		if(recipe == null || inputs.isEmpty()) {
+			System.err.println("Usage: java batch.Batch -r \"volume=80;fadeIn=2\" [-o outputDir] [-t threads] [-f] files/directories...");
+			System.exit(2);
+		}
+		if(outDir != null) {
+			outDir.mkdirs();
+		}
+
+		Batch batch = new Batch(Recipe.parse(recipe), outDir, threads);
+		batch.run(collect(inputs));
+		System.exit(batch.failed.get() == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Collects all .wav and .mp3 files, directories are listed (not recursively).
+	 * @param inputs Files and directories
+	 * @return Audio files
+	 */
+	public static List<File> collect(List<File> inputs) {
+		List<File> files = new ArrayList<>();
+		for(File f : inputs) {
+			File[] children = f.isDirectory() ? f.listFiles() : new File[] {f};
+			if(children == null) {
+				continue;
+			}
+			for(File child : children) {
+				if(child.isFile() && (child.getName().endsWith("wav") || child.getName().endsWith("mp3"))) {
+					files.add(child);
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Processes all files and prints a throughput summary.
+	 * Blocks until every file is done.
+	 * @param files Audio files
+	 */
+	public void run(List<File> files) {
+		final long start = System.nanoTime();
+		for(File f : files) {
+			int permits = estimate(f, budget);
+			memory.acquireUninterruptibly(permits);	//Waits until enough finished jobs released their memory
+			pool.execute(() -> {
+				try {
+					process(f);
+				} finally {
+					memory.release(permits);
+				}
+			});
+		}
+		pool.shutdown();
+		try {
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		printSummary(System.nanoTime() - start);
+	}
+
+	/**
+	 * Loads, modifies and saves a single file.
+	 * @param f Audio file
+	 */
+	private void process(File f) {
+		try {
+			Track t = f.getName().endsWith("mp3") ? Converter.getTrackFromMP3(f) : Converter.getTrackFromWav(f);
+			if(t == null) {
+				throw new IllegalArgumentException("could not be loaded");
+			}
+			Track result = recipe.apply(t);
+			String name = f.getName().substring(0, f.getName().lastIndexOf('.'));
+			Converter.save(result, name, outDir != null ? outDir : f.getAbsoluteFile().getParentFile());
+			inputBytes.addAndGet(f.length());
+			audioMillis.addAndGet((long)(t.getLength() * 1000));
+			done.incrementAndGet();
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			System.err.println(f + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return Memory budget for jobs in KiB: three quarters of the heap which is still free
+	 */
+	static int memoryBudget() {
+		Runtime rt = Runtime.getRuntime();
+		return (int)Math.max(1, (rt.maxMemory() - (rt.totalMemory() - rt.freeMemory())) / 1024 * 3 / 4);
+	}
+
+	/**
+	 * Estimates the memory a job needs.
+	 * @param f Audio file
+	 * @param budget Memory budget in KiB
+	 * @return Estimate in KiB, at most the whole budget
+	 */
+	static int estimate(File f, int budget) {
+		long factor = f.getName().endsWith("mp3") ? MP3_FACTOR : WAV_FACTOR;
+		return (int)Math.max(1, Math.min(budget, f.length() * factor / 1024));
+	}
+
+	/**
+	 * Prints the number of files, wall time, throughput and the statistics per operation to stdout.
+	 * @param nanos Wall time of the whole run
+	 */
+	private void printSummary(long nanos) {
+		double seconds = nanos / 1e9;
+		double audioSeconds = audioMillis.get() / 1000.0;
+		System.out.printf("%d files processed, %d failed, %d threads%n", done.get(), failed.get(), pool.getParallelism());
+		System.out.printf("%.2f s wall time, %.2f files/s, %.2f MB/s, %.1fx real time%n",
+				seconds, done.get() / seconds, inputBytes.get() / 1e6 / seconds, audioSeconds / seconds);
+		System.out.print(Metrics.report());
+	}
+}
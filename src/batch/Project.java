@@ -0,0 +1,309 @@
+package batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sound.sampled.AudioFormat;
+
+import mod.Converter;
+import mod.Track;
+import wave.Peaks;
+import wave.SampleCodec;
+
+/**
+ * Non-destructive project file. A project does not contain audio, only the source file of every Track
+ * (with its size and a hash), the Recipe of the edits made to it and optionally the waveform overview.
+ * Files are written and read through a memory mapping, so saving and opening only copy a few KiB.
+ * Opening is lazy: no source is decoded, every Track renders itself on the first read (playback, export).
+ * The source is loaded in the working format of the edited Track (integer or float, the encoding of the result),
+ * whatever the float processing setting is when the project is opened, so the Recipe renders the same audio.
+ * Layout (big endian): magic, version, entry count, offset of every entry, entries.
+ * Entry: name, source path, source size, source hash, recipe, encoding, sample rate, bits, channels,
+ * frame size, frame rate, big endian flag, result size, peak columns and channels, peaks as 16 bit values.
+ * @author Tobias Haider
+ */
+public class Project {
+
+	private static final int MAGIC = 0x43504A31;	//"CPJ1"
+	private static final int VERSION = 1;
+	private static final int HASH_WINDOW = 1 << 30;	//Bytes of a source file mapped at once while hashing
+
+	/**
+	 * One Track of a project.
+	 */
+	public static class Entry {
+		private final String name;	//Name of the Track
+		private final File source;	//Audio file the Track was loaded from
+		private final long sourceSize;	//Size of the source file when saved
+		private final long sourceHash;	//Hash of the source file when saved
+		private final Recipe recipe;	//Edits applied to the source
+		private final AudioFormat format;	//Format of the result
+		private final long size;	//Length of the result in bytes
+		private final Peaks peaks;	//Waveform overview of the result, null if unknown
+
+		private Entry(String name, File source, long sourceSize, long sourceHash, Recipe recipe, AudioFormat format,
+				long size, Peaks peaks) {
+			this.name = name;
+			this.source = source;
+			this.sourceSize = sourceSize;
+			this.sourceHash = sourceHash;
+			this.recipe = recipe;
+			this.format = format;
+			this.size = size;
+			this.peaks = peaks;
+		}
+
+		/**
+		 * Constructor for an entry to save. The peaks are stored if they are cached or cheap to get,
+		 * a lazy Track is not rendered for them.
+		 * @param t Edited Track
+		 * @param source Audio file the Track was loaded from
+		 * @param recipe Edits which turn the source into t
+		 */
+		public Entry(Track t, File source, Recipe recipe) {
+			this(t.getName(), source.getAbsoluteFile(), -1, 0, recipe, t.getFormat(), t.getSize(),
+					t.isRendered() ? t.getPeaks() : t.getCachedPeaks());
+		}
+
+		/**
+		 * Creates the Track of the entry without decoding anything. The first read loads the source,
+		 * checks that it did not change and applies the Recipe.
+		 * @return Lazy Track object
+		 */
+		public Track toTrack() {
+			return new Track(name, size, format, this::render, peaks);
+		}
+
+		/**
+		 * Loads the source and applies the Recipe.
+		 * @return Rendered Track
+		 * @throws IllegalStateException if the source is missing, changed or can not be loaded
+		 */
+		private Track render() {
+			try {
+				if(!isSourceUnchanged()) {
+					throw new IllegalStateException("Source " + source + " is missing or was changed");
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Source " + source + " can not be read", e);
+			}
+			Track t = Converter.load(source, SampleCodec.isFloat(format));	//Steps never change the encoding
+			if(t == null) {
+				throw new IllegalStateException("Source " + source + " can not be loaded");
+			}
+			return recipe.apply(t);
+		}
+
+		/**
+		 * Compares the source file to the size and hash stored in the project.
+		 * @return True if the source exists and did not change
+		 * @throws IOException if the source can not be read
+		 */
+		public boolean isSourceUnchanged() throws IOException {
+			return source.isFile() && source.length() == sourceSize && hash(source) == sourceHash;
+		}
+
+		//getter
+		public String getName() {
+			return name;
+		}
+
+		public File getSource() {
+			return source;
+		}
+
+		public Recipe getRecipe() {
+			return recipe;
+		}
+	}
+
+	private final MappedByteBuffer buffer;	//Mapped project file
+	private final Entry[] entries;	//Entries parsed so far, null until needed
+
+	private Project(MappedByteBuffer buffer, int count) {
+		this.buffer = buffer;
+		this.entries = new Entry[count];
+	}
+
+	/**
+	 * Maps a project file. Only the header is read, entries are parsed when they are requested.
+	 * @param f Project file
+	 * @return Project object
+	 * @throws IOException if the file can not be read or is no project file
+	 */
+	public static Project open(File f) throws IOException {
+		try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());	//Stays valid after closing
+			if(buffer.remaining() < 12 || buffer.getInt(0) != MAGIC) {
+				throw new IOException(f + " is no project file");
+			}
+			if(buffer.getInt(4) != VERSION) {
+				throw new IOException(f + " has the unsupported version " + buffer.getInt(4));
+			}
+			return new Project(buffer, buffer.getInt(8));
+		}
+	}
+
+	/**
+	 * @return Number of entries
+	 */
+	public int size() {
+		return entries.length;
+	}
+
+	/**
+	 * Parses an entry on the first call.
+	 * @param i Index of the entry
+	 * @return Entry object
+	 */
+	public synchronized Entry get(int i) {
+		if(entries[i] == null) {
+			ByteBuffer b = buffer.duplicate();
+			b.position((int)buffer.getLong(12 + 8 * i));
+			String name = readString(b);
+			File source = new File(readString(b));
+			long sourceSize = b.getLong();
+			long sourceHash = b.getLong();
+			Recipe recipe = Recipe.parse(readString(b));
+			AudioFormat format = new AudioFormat(new AudioFormat.Encoding(readString(b)), b.getFloat(), b.getInt(),
+					b.getInt(), b.getInt(), b.getFloat(), b.get() != 0);
+			long size = b.getLong();
+			int columns = b.getInt();
+			int channels = b.getInt();
+			Peaks peaks = null;
+			if(columns > 0) {
+				float[][] p = new float[channels][columns];
+				for(float[] lane : p) {
+					for(int c = 0; c < columns; c++) {
+						lane[c] = b.getShort() / (float)Short.MAX_VALUE;
+					}
+				}
+				peaks = new Peaks(p);
+			}
+			entries[i] = new Entry(name, source, sourceSize, sourceHash, recipe, format, size, peaks);
+		}
+		return entries[i];
+	}
+
+	/**
+	 * Writes a project file, the size of the file is calculated first and the file is written through a mapping.
+	 * Every source file is hashed once, even if many entries use it.
+	 * @param f Project file (replaced if it exists)
+	 * @param list Entries to save
+	 * @throws IOException if a source or the project file can not be accessed
+	 */
+	public static void save(File f, List<Entry> list) throws IOException {
+		Map<File, Long> hashes = new HashMap<>();
+		List<byte[][]> strings = new ArrayList<>();	//Encoded strings of every entry
+		long size = 12 + 8L * list.size();
+		for(Entry e : list) {
+			if(!hashes.containsKey(e.source)) {
+				hashes.put(e.source, hash(e.source));
+			}
+			byte[][] s = {utf8(e.name), utf8(e.source.getPath()), utf8(e.recipe.toString()), utf8(e.format.getEncoding().toString())};
+			strings.add(s);
+			size += entrySize(e, s);
+		}
+		if(size > Integer.MAX_VALUE) {
+			throw new IOException("Project is too large");
+		}
+		try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			b.putInt(MAGIC).putInt(VERSION).putInt(list.size());
+			int offset = 12 + 8 * list.size();
+			for(int i = 0; i < list.size(); i++) {
+				b.putLong(12 + 8 * i, offset);
+				offset += entrySize(list.get(i), strings.get(i));
+			}
+			b.position(12 + 8 * list.size());
+			for(int i = 0; i < list.size(); i++) {
+				Entry e = list.get(i);
+				byte[][] s = strings.get(i);
+				AudioFormat format = e.format;
+				putString(b, s[0]);
+				putString(b, s[1]);
+				b.putLong(e.source.length()).putLong(hashes.get(e.source));
+				putString(b, s[2]);
+				putString(b, s[3]);
+				b.putFloat(format.getSampleRate()).putInt(format.getSampleSizeInBits()).putInt(format.getChannels())
+						.putInt(format.getFrameSize()).putFloat(format.getFrameRate()).put((byte)(format.isBigEndian() ? 1 : 0));
+				b.putLong(e.size);
+				Peaks p = e.peaks;
+				b.putInt(p == null ? 0 : p.getColumns()).putInt(p == null ? 0 : p.getChannels());
+				if(p != null) {
+					for(int c = 0; c < p.getChannels(); c++) {
+						for(int x = 0; x < p.getColumns(); x++) {	//Rounded up, a peak never gets lower
+							b.putShort((short)Math.min(Short.MAX_VALUE, Math.ceil(p.get(c, x) * Short.MAX_VALUE)));
+						}
+					}
+				}
+			}
+			b.force();
+		}
+	}
+
+	/**
+	 * @param e Entry
+	 * @param strings Encoded strings of the entry
+	 * @return Bytes used by the entry
+	 */
+	private static long entrySize(Entry e, byte[][] strings) {
+		long size = 8 + 8 + 4 + 4 + 4 + 4 + 4 + 1 + 8 + 4 + 4;	//Fixed size fields
+		for(byte[] s : strings) {
+			size += 4 + s.length;
+		}
+		if(e.peaks != null) {
+			size += 2L * e.peaks.getChannels() * e.peaks.getColumns();
+		}
+		return size;
+	}
+
+	private static byte[] utf8(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void putString(ByteBuffer b, byte[] s) {
+		b.putInt(s.length).put(s);
+	}
+
+	private static String readString(ByteBuffer b) {
+		byte[] s = new byte[b.getInt()];
+		b.get(s);
+		return new String(s, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of a file, 8 bytes per step. The file is mapped in windows, so any size works.
+	 * @param f File
+	 * @return Hash value
+	 * @throws IOException if the file can not be read
+	 */
+	static long hash(File f) throws IOException {
+		long h = 0xcbf29ce484222325L;
+		try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			for(long pos = 0; pos < size; pos += HASH_WINDOW) {
+				ByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(HASH_WINDOW, size - pos))
+						.order(ByteOrder.LITTLE_ENDIAN);
+				while(b.remaining() >= 8) {
+					h = (h ^ b.getLong()) * 0x100000001b3L;
+				}
+				while(b.hasRemaining()) {
+					h = (h ^ (b.get() & 0xff)) * 0x100000001b3L;
+				}
+			}
+		}
+		return h ^ (h >>> 29);
+	}
+}
@@ -0,0 +1,172 @@
+package batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import mod.Modifier;
+import mod.Track;
+
+/**
+ * A list of Modifier operations which can be applied to many Tracks.
+ * Recipes are written as a string like "volume=80;fadeIn=2;fadeOut=30;addSil=0,1".
+ * Supported steps: cut=from,to fadeIn=to fadeOut=from addSil=pos,seconds volume=percentage autoCut=threshold,minDuration
+ * normalize=lufs pan=position mono limit=ceilingDb compress=thresholdDb,ratio gate=thresholdDb channelGain=channel,percentage
+ * Every step runs through the same Modifier function as in the user interface, so replaying the Recipe of an
+ * edited Track (project files, see Project) gives exactly the same audio.
+ * Recipes are immutable, then returns a new Recipe with one more step (used to record the history of a Track).
+ * @author Tobias Haider
+ */
+public class Recipe {
+
+	private final List<String> names = new ArrayList<>();	//Operation names in order
+	private final List<double[]> params = new ArrayList<>();	//Parameters of the operations
+
+	/**
+	 * Parses a recipe string.
+	 * @param recipe Steps seperated by ';', parameters seperated by ','
+	 * @return Recipe object
+	 * @throws IllegalArgumentException if a step is unknown or has the wrong number of parameters
+	 */
+	public static Recipe parse(String recipe) {
+		Recipe r = new Recipe();
+		for(String step : recipe.split(";")) {
+			step = step.trim();
+			if(step.isEmpty()) {
+				continue;
+			}
+			String[] parts = step.split("=", 2);
+			String name = parts[0].trim();
+			String[] values = parts.length > 1 ? parts[1].split(",") : new String[0];
+			double[] p = new double[values.length];
+			for(int i = 0; i < values.length; i++) {
+				p[i] = Double.parseDouble(values[i].trim());
+			}
+			if(p.length != paramCount(name)) {
+				throw new IllegalArgumentException("Step " + name + " needs " + paramCount(name) + " parameters");
+			}
+			r.names.add(name);
+			r.params.add(p);
+		}
+		return r;
+	}
+
+	/**
+	 * @param name Name of an operation
+	 * @return Number of parameters of the operation
+	 */
+	private static int paramCount(String name) {
+		switch(name) {
+			case "mono":
+				return 0;
+			case "fadeIn":
+			case "fadeOut":
+			case "volume":
+			case "normalize":
+			case "pan":
+			case "limit":
+			case "gate":
+				return 1;
+			case "cut":
+			case "addSil":
+			case "autoCut":
+			case "compress":
+			case "channelGain":
+				return 2;
+			default:
+				throw new IllegalArgumentException("Unknown step " + name);
+		}
+	}
+
+	/**
+	 * Creates a Recipe with one more step.
+	 * @param step Step in string form, e.g. "volume=80"
+	 * @return New Recipe, this one is not changed
+	 * @throws IllegalArgumentException if the step is unknown or has the wrong number of parameters
+	 */
+	public Recipe then(String step) {
+		Recipe added = parse(step);
+		Recipe r = new Recipe();
+		r.names.addAll(names);
+		r.params.addAll(params);
+		r.names.addAll(added.names);
+		r.params.addAll(added.params);
+		return r;
+	}
+
+	/**
+	 * Applies all steps to a Track.
+	 * @param t Track used for modification
+	 * @return New modified Track object
+	 */
+	public Track apply(Track t) {
+		for(int i = 0; i < names.size(); i++) {
+			double[] p = params.get(i);
+			switch(names.get(i)) {
+				case "cut":
+					t = Modifier.cut(t, p[0], p[1]);
+					break;
+				case "fadeIn":
+					t = Modifier.fadeIn(t, p[0]);
+					break;
+				case "fadeOut":
+					t = Modifier.fadeOut(t, p[0]);
+					break;
+				case "addSil":
+					t = Modifier.addSil(t, p[0], p[1]);
+					break;
+				case "volume":
+					t = Modifier.volume(t, (int)p[0]);
+					break;
+				case "autoCut":
+					t = Modifier.autoCut(t, (int)p[0], (float)p[1]);
+					break;
+				case "normalize":
+					t = Modifier.normalize(t, p[0]);
+					break;
+				case "pan":
+					t = Modifier.pan(t, (int)p[0]);
+					break;
+				case "mono":
+					t = Modifier.downmix(t);
+					break;
+				case "limit":
+					t = Modifier.limit(t, p[0]);
+					break;
+				case "compress":
+					t = Modifier.compress(t, p[0], p[1]);
+					break;
+				case "gate":
+					t = Modifier.gate(t, p[0]);
+					break;
+				case "channelGain":
+					t = Modifier.channelGain(t, (int)p[0], (int)p[1]);
+					break;
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * @return Names of the steps in order, e.g. [volume, fadeIn]
+	 */
+	public List<String> getSteps() {
+		return Collections.unmodifiableList(names);
+	}
+
+	/**
+	 * @return The recipe in its string form
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < names.size(); i++) {
+			sb.append(i == 0 ? "" : ";").append(names.get(i));
+			double[] p = params.get(i);
+			for(int j = 0; j < p.length; j++) {
+				sb.append(j == 0 ? "=" : ",").append(p[j]);
+			}
+		}
+		return sb.toString();
+	}
+}
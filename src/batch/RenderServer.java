@@ -0,0 +1,454 @@
+package batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import mod.Converter;
+import mod.Metrics;
+import mod.Track;
+
+/**
+ * Headless render server for other processes on the same host. It listens on the loopback interface only.
+ * A job loads a file, applies a Recipe and saves the result. Jobs wait in a bounded priority queue,
+ * a full queue rejects new jobs (or makes the client wait up to MAX_WAIT ms), so clients slow down instead of
+ * filling the heap. Waiting submissions run on their own threads, so they never block the threads answering requests.
+ * Workers only start a job when its estimated memory fits into the budget, like Batch. The worker choosing the next job
+ * waits for the memory of the most urgent job, so a job submitted later with a higher priority is started first.
+ * Usage: java batch.RenderServer [-p port] [-q queueSize] [-t threads] [-o outputDir] [-f]
+ * Requests:
+ * POST /jobs?file=path&recipe=volume%3D80;fadeIn%3D2[&priority=n][&wait=ms] submits a job, answers with the job id
+ * (503 if the queue stays full). Higher priorities run first, equal priorities in order of submission.
+ * GET /jobs/id shows the state, GET /jobs/id/result streams the result file, DELETE /jobs/id removes job and result.
+ * Finished jobs and their results are removed after RESULT_TTL or when more than MAX_FINISHED jobs are finished
+ * (checked whenever a job ends).
+ * GET /stats shows the queue and the statistics of every job type (the operations used by its Recipe):
+ * "job type" is the run time and throughput, "latency type" the time from submission to the end of the job.
+ * @author Tobias Haider
+ */
+public class RenderServer {
+
+	private static final int DEFAULT_PORT = 8642;
+	private static final int DEFAULT_QUEUE = 64;	//Jobs waiting at most
+	private static final int HTTP_THREADS = 4;	//Threads answering requests
+	private static final int WAIT_THREADS = 16;	//Submissions waiting for a free place at most, more are rejected at once
+	private static final long MAX_WAIT = 30000;	//Longest wait of a submission in ms
+	private static final long RECHECK_MILLIS = 100;	//Interval of a waiting worker checking for a more urgent job
+	private static final long RESULT_TTL = TimeUnit.HOURS.toNanos(1);	//Time a finished job and its result are kept
+	private static final int MAX_FINISHED = 1024;	//Finished jobs kept at most, the oldest are removed first
+
+	/**
+	 * States of a job.
+	 */
+	public enum State {QUEUED, RUNNING, DONE, FAILED}
+
+	/**
+	 * One render job, ordered by priority and then by id.
+	 */
+	private static class Job implements Comparable<Job> {
+		private final long id;
+		private final File file;	//Input file
+		private final Recipe recipe;
+		private final String type;	//Operations of the recipe, used as key of the statistics
+		private final int priority;	//Higher runs first
+		private final int permits;	//Estimated memory in KiB
+		private final long submitted = System.nanoTime();
+		private volatile State state = State.QUEUED;
+		private volatile File result;	//Output file, null until done
+		private volatile String error;	//Reason of a failure
+		private volatile long runNanos;	//Duration of the job itself
+		private volatile long finished;	//System.nanoTime at the end of the job, 0 while it is not finished
+
+		private Job(long id, File file, Recipe recipe, int priority, int permits) {
+			this.id = id;
+			this.file = file;
+			this.recipe = recipe;
+			this.type = recipe.getSteps().isEmpty() ? "copy" : String.join("+", new TreeSet<>(recipe.getSteps()));	//Bounded number of keys
+			this.priority = priority;
+			this.permits = permits;
+		}
+
+		@Override
+		public int compareTo(Job o) {
+			return priority != o.priority ? Integer.compare(o.priority, priority) : Long.compare(id, o.id);
+		}
+	}
+
+	private final File outDir;
+	private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>();
+	private final Semaphore places;	//Free places in the queue
+	private final Semaphore memory;	//One permit per KiB of the memory budget
+	private final int budget;	//Memory budget in KiB
+	private final int threads;	//Number of workers
+	private final Map<Long, Job> jobs = new ConcurrentHashMap<>();	//All jobs which were not deleted
+	private final AtomicLong ids = new AtomicLong();
+	private final AtomicInteger running = new AtomicInteger();
+	private final Object picker = new Object();	//Held by the worker choosing the next job
+	private final ExecutorService waiters = new ThreadPoolExecutor(0, WAIT_THREADS, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<>(), r -> {
+				Thread t = new Thread(r, "render submit");
+				t.setDaemon(true);
+				return t;
+			});
+	private final HttpServer server;
+
+	/**
+	 * Starts the server and its workers.
+	 * @param port Port on the loopback interface
+	 * @param queueSize Jobs waiting at most
+	 * @param threads Number of workers
+	 * @param outDir Directory for the results
+	 * @throws IOException if the port can not be used
+	 */
+	public RenderServer(int port, int queueSize, int threads, File outDir) throws IOException {
+		this.outDir = outDir;
+		this.places = new Semaphore(queueSize);
+		this.budget = Batch.memoryBudget();
+		this.memory = new Semaphore(budget);
+		this.threads = threads;
+		for(int i = 0; i < threads; i++) {
+			Thread worker = new Thread(this::work, "render " + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/jobs", this::handleJobs);
+		server.createContext("/stats", this::handleStats);
+		server.setExecutor(Executors.newFixedThreadPool(HTTP_THREADS));
+		server.start();
+	}
+
+	/**
+	 * Main method for the headless render server
+	 * @param args Command line arguments
+	 * @throws IOException if the server can not be started
+	 */
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");	//Never initialize a display
+
+		int port = DEFAULT_PORT;
+		int queueSize = DEFAULT_QUEUE;
+		int threads = Runtime.getRuntime().availableProcessors();
+		File outDir = new File(System.getProperty("java.io.tmpdir"), "cutplay-render");
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].equals("-p") && i + 1 < args.length) {
+				port = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-q") && i + 1 < args.length) {
+				queueSize = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-t") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if(args[i].equals("-o") && i + 1 < args.length) {
+				outDir = new File(args[++i]);
+			} else if(args[i].equals("-f")) {
+				Converter.setFloatProcessing(true);
+			} else {
+				System.err.println("Usage: java batch.RenderServer [-p port] [-q queueSize] [-t threads] [-o outputDir] [-f]");
+				System.exit(2);
+			}
+		}
+		outDir.mkdirs();
+		RenderServer s = new RenderServer(port, queueSize, threads, outDir);
+		System.out.println("Listening on " + s.server.getAddress() + ", results in " + outDir);
+	}
+
+	/**
+	 * Submits a job.
+	 * @param file Input file
+	 * @param recipe Recipe applied to the file
+	 * @param priority Higher runs first
+	 * @param waitMillis Time to wait for a free place in the queue, 0 to reject at once (at most MAX_WAIT)
+	 * @return Id of the job, -1 if the queue stayed full
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	public long submit(File file, Recipe recipe, int priority, long waitMillis) throws InterruptedException {
+		if(!places.tryAcquire(Math.min(waitMillis, MAX_WAIT), TimeUnit.MILLISECONDS)) {
+			return -1;
+		}
+		Job job = new Job(ids.incrementAndGet(), file, recipe, priority, Batch.estimate(file, budget));
+		jobs.put(job.id, job);
+		queue.add(job);
+		return job.id;
+	}
+
+	/**
+	 * Worker loop: takes the most urgent job and runs it when its memory fits into the budget.
+	 */
+	private void work() {
+		while(true) {
+			Job job;
+			try {
+				job = next();
+			} catch (InterruptedException e) {
+				return;
+			}
+			running.incrementAndGet();
+			try {
+				run(job);
+			} finally {
+				running.decrementAndGet();
+				memory.release(job.permits);
+			}
+		}
+	}
+
+	/**
+	 * Takes the most urgent job once its memory is acquired. Only one worker chooses at a time.
+	 * While it waits for memory the job is put back whenever a more urgent one arrives, so that one is started first.
+	 * The place in the queue is only freed when the job is started, so waiting jobs still count as queued.
+	 * @return Job whose memory is acquired
+	 * @throws InterruptedException if the worker was interrupted
+	 */
+	private Job next() throws InterruptedException {
+		synchronized(picker) {
+			Job job = queue.take();
+			try {
+				while(!memory.tryAcquire(job.permits, RECHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+					Job head = queue.peek();
+					if(head != null && head.compareTo(job) < 0) {
+						queue.add(job);
+						job = queue.poll();	//head or an even more urgent job
+					}
+				}
+			} catch (InterruptedException e) {
+				queue.add(job);
+				throw e;
+			}
+			places.release();
+			return job;
+		}
+	}
+
+	/**
+	 * Loads, modifies and saves the file of a job.
+	 * @param job Job
+	 */
+	private void run(Job job) {
+		job.state = State.RUNNING;
+		long start = System.nanoTime();
+		long samples = 0;
+		try(Metrics.Timer m = Metrics.start("job " + job.type, 0)) {
+			Track t = Converter.load(job.file);
+			if(t == null) {
+				throw new IllegalArgumentException(job.file + " could not be loaded");
+			}
+			samples = t.getFrames() * t.getFormat().getChannels();
+			m.setSamples(samples);
+			String name = job.id + "-" + job.file.getName().replaceFirst("\\.[^.]*$", "");
+			Converter.save(job.recipe.apply(t), name, outDir);
+			File result = new File(outDir, name + ".wav");
+			if(!result.isFile()) {	//save reports errors only on stderr
+				throw new IOException(result + " could not be written");
+			}
+			job.result = result;
+			job.state = State.DONE;
+		} catch (Exception e) {
+			job.error = String.valueOf(e.getMessage());
+			job.state = State.FAILED;
+		}
+		long end = System.nanoTime();
+		job.runNanos = end - start;
+		job.finished = end;
+		Metrics.record("latency " + job.type, end - job.submitted, samples);
+		expire();
+	}
+
+	/**
+	 * Removes finished jobs older than RESULT_TTL and the oldest finished jobs beyond MAX_FINISHED, with their results.
+	 */
+	private synchronized void expire() {
+		long now = System.nanoTime();
+		List<Job> finished = new ArrayList<>();
+		for(Job job : jobs.values()) {
+			if(job.finished != 0) {
+				finished.add(job);
+			}
+		}
+		finished.sort(Comparator.comparingLong(job -> job.finished));
+		for(int i = 0; i < finished.size(); i++) {
+			Job job = finished.get(i);
+			if(now - job.finished > RESULT_TTL || finished.size() - i > MAX_FINISHED) {
+				delete(job);
+			}
+		}
+	}
+
+	/**
+	 * Removes a finished job and its result.
+	 * @param job Job
+	 */
+	private void delete(Job job) {
+		jobs.remove(job.id);
+		if(job.result != null) {
+			try {
+				Files.deleteIfExists(job.result.toPath());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Handles /jobs, /jobs/id and /jobs/id/result.
+	 * @param ex Request
+	 */
+	private void handleJobs(HttpExchange ex) throws IOException {
+		try {
+			String[] path = ex.getRequestURI().getPath().split("/");	//"", "jobs", id, "result"
+			String method = ex.getRequestMethod();
+			if(path.length == 2 && method.equals("POST")) {
+				Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+				if(!q.containsKey("file") || !q.containsKey("recipe")) {
+					send(ex, 400, "file and recipe are needed\n");
+					return;
+				}
+				File file = new File(q.get("file"));
+				if(!file.isFile()) {
+					send(ex, 400, file + " does not exist\n");
+					return;
+				}
+				Recipe recipe = Recipe.parse(q.get("recipe"));
+				int priority = Integer.parseInt(q.getOrDefault("priority", "0"));
+				long wait = Long.parseLong(q.getOrDefault("wait", "0"));
+				if(wait <= 0 || places.availablePermits() > 0) {
+					answerSubmit(ex, file, recipe, priority, 0);
+					return;
+				}
+				try {
+					waiters.execute(() -> {
+						try {
+							answerSubmit(ex, file, recipe, priority, wait);
+						} catch (IOException e) {	//Client is gone
+							ex.close();
+						}
+					});
+				} catch (RejectedExecutionException e) {	//Too many clients are waiting already
+					ex.getResponseHeaders().add("Retry-After", "1");
+					send(ex, 503, "queue is full\n");
+				}
+				return;
+			}
+			Job job = path.length >= 3 ? jobs.get(Long.parseLong(path[2])) : null;
+			if(job == null) {
+				send(ex, 404, "unknown job\n");
+			} else if(path.length == 3 && method.equals("GET")) {
+				send(ex, 200, status(job));
+			} else if(path.length == 3 && method.equals("DELETE")) {
+				if(job.state == State.QUEUED || job.state == State.RUNNING) {
+					send(ex, 409, "job is not finished\n");
+					return;
+				}
+				delete(job);
+				send(ex, 200, "deleted\n");
+			} else if(path.length == 4 && path[3].equals("result") && method.equals("GET")) {
+				if(job.state != State.DONE) {
+					send(ex, 409, status(job));
+					return;
+				}
+				ex.getResponseHeaders().add("Content-Type", "audio/wav");
+				ex.sendResponseHeaders(200, job.result.length());
+				try(OutputStream out = ex.getResponseBody()) {
+					Files.copy(job.result.toPath(), out);
+				}
+			} else {
+				send(ex, 404, "unknown request\n");
+			}
+		} catch (IllegalArgumentException e) {	//Also NumberFormatException
+			send(ex, 400, e.getMessage() + "\n");
+		}
+	}
+
+	/**
+	 * Submits a job and sends its id, or 503 if the queue stayed full.
+	 * @param ex Request
+	 * @param waitMillis Time to wait for a free place in the queue
+	 */
+	private void answerSubmit(HttpExchange ex, File file, Recipe recipe, int priority, long waitMillis) throws IOException {
+		long id;
+		try {
+			id = submit(file, recipe, priority, waitMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			send(ex, 503, "interrupted\n");
+			return;
+		}
+		if(id < 0) {
+			ex.getResponseHeaders().add("Retry-After", "1");
+			send(ex, 503, "queue is full\n");
+		} else {
+			send(ex, 202, id + "\n");
+		}
+	}
+
+	/**
+	 * Handles /stats.
+	 * @param ex Request
+	 */
+	private void handleStats(HttpExchange ex) throws IOException {
+		send(ex, 200, String.format("queued %d, running %d, workers %d, memory %d of %d MB free%n%n",
+				queue.size(), running.get(), threads, memory.availablePermits() / 1024, budget / 1024) + Metrics.report());
+	}
+
+	/**
+	 * @param job Job
+	 * @return State of the job as one line
+	 */
+	private static String status(Job job) {
+		String s = job.id + " " + job.state + " " + job.type + " priority " + job.priority;
+		if(job.state == State.DONE || job.state == State.FAILED) {
+			s += String.format(" %.1f ms", job.runNanos / 1e6);
+		}
+		return s + (job.state == State.FAILED ? ": " + job.error : "") + "\n";
+	}
+
+	/**
+	 * Sends a text answer.
+	 */
+	private static void send(HttpExchange ex, int code, String text) throws IOException {
+		byte[] body = text.getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+		ex.sendResponseHeaders(code, body.length);
+		try(OutputStream out = ex.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * @param raw Raw query string, may be null
+	 * @return Decoded parameters
+	 */
+	private static Map<String, String> query(String raw) {
+		Map<String, String> q = new HashMap<>();
+		if(raw != null) {
+			for(String pair : raw.split("&")) {
+				String[] kv = pair.split("=", 2);
+				q.put(URLDecoder.decode(kv[0], StandardCharsets.UTF_8), kv.length > 1 ? URLDecoder.decode(kv[1], StandardCharsets.UTF_8) : "");
+			}
+		}
+		return q;
+	}
+}
@@ -0,0 +1,31 @@
+package mod;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Audio data which can be read at any position, either a finished Track or a GrowingBuffer which is still being decoded.
+ * The Player reads through this interface, so it can start playing before a file is completely loaded.
+ * @author Tobias Haider
+ */
+public interface AudioSource {
+
+	/**
+	 * @return Audio format
+	 */
+	AudioFormat getFormat();
+
+	/**
+	 * @return Number of bytes which can be read at the moment
+	 */
+	long getSize();
+
+	/**
+	 * Copies a part of the audio data.
+	 * @param pos Absolute position in the audio data
+	 * @param dst Destination array
+	 * @param off Offset in the destination array
+	 * @param len Maximal number of bytes to copy
+	 * @return Number of bytes copied, -1 if pos is at the end of the data
+	 */
+	int read(long pos, byte[] dst, int off, int len);
+}
@@ -0,0 +1,135 @@
+package mod;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Content addressed store for audio data.
+ * Audio bytes are split into chunks of a fixed size and every chunk is hashed.
+ * Chunks with identical content are only stored once and shared between all Track objects using them.
+ * Shared chunks are never written to (copy-on-write): a modification always produces new chunks, which are interned again.
+ * Chunks are only weakly referenced by the store, so they are freed as soon as no Track uses them anymore.
+ * @author Tobias Haider
+ */
+public class ChunkStore {
+
+	public static final int CHUNK_SHIFT = 16;	//64 KiB per chunk
+	public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	private static final Map<Long, List<Entry>> chunks = new HashMap<>();	//hash -> chunks with this hash
+	private static final ReferenceQueue<byte[]> queue = new ReferenceQueue<>();	//cleared chunks
+	private static long storedBytes = 0;	//bytes of all chunks currently in the store
+
+	/**
+	 * Weak reference to a chunk remembering its hash, so it can be removed from the map once it got cleared.
+	 */
+	private static class Entry extends WeakReference<byte[]> {
+		private final long hash;
+		private final int size;
+
+		private Entry(byte[] chunk, long hash) {
+			super(chunk, queue);
+			this.hash = hash;
+			this.size = chunk.length;
+		}
+	}
+
+	/**
+	 * Splits audio data into chunks and replaces every chunk by an already stored chunk with the same content.
+	 * @param data Audio bytes
+	 * @return Array of shared chunks, all of them CHUNK_SIZE long except the last one
+	 */
+	public static byte[][] intern(byte[] data) {
+		int count = (data.length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT;
+		byte[][] result = new byte[count][];
+		for(int i = 0; i < count; i++) {
+			int from = i << CHUNK_SHIFT;
+			int to = Math.min(from + CHUNK_SIZE, data.length);
+			result[i] = intern(data, from, to);
+		}
+		return result;
+	}
+
+	/**
+	 * Looks up a single chunk in the store and adds it, if no chunk with the same content exists.
+	 * @param data Audio bytes
+	 * @param from Start of the chunk (inclusive)
+	 * @param to End of the chunk (exclusive)
+	 * @return Shared chunk with the content of data[from, to)
+	 */
+	public static byte[] intern(byte[] data, int from, int to) {
+		long hash = hash(data, from, to);
+		synchronized(chunks) {
+			expunge();
+			List<Entry> candidates = chunks.computeIfAbsent(hash, h -> new ArrayList<>(1));
+			for(Entry e : candidates) {
+				byte[] chunk = e.get();
+				if(chunk != null && Arrays.equals(chunk, 0, chunk.length, data, from, to)) {
+					return chunk;
+				}
+			}
+			byte[] chunk = Arrays.copyOfRange(data, from, to);
+			candidates.add(new Entry(chunk, hash));
+			storedBytes += chunk.length;
+			return chunk;
+		}
+	}
+
+	/**
+	 * @return Number of bytes currently held by the store (every shared chunk is counted once)
+	 */
+	public static long getStoredBytes() {
+		synchronized(chunks) {
+			expunge();
+			return storedBytes;
+		}
+	}
+
+	/**
+	 * Removes all entries whose chunks have been garbage collected.
+	 */
+	private static void expunge() {
+		Entry e;
+		while((e = (Entry)queue.poll()) != null) {
+			List<Entry> candidates = chunks.get(e.hash);
+			if(candidates != null && candidates.remove(e)) {
+				storedBytes -= e.size;
+				if(candidates.isEmpty()) {
+					chunks.remove(e.hash);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of a part of a byte array, processing 8 bytes per step.
+	 * @param data Audio bytes
+	 * @param from Start (inclusive)
+	 * @param to End (exclusive)
+	 * @return Hash value
+	 */
+	private static long hash(byte[] data, int from, int to) {
+		long h = 0xcbf29ce484222325L;
+		int i = from;
+		for(; i + 7 < to; i += 8) {
+			long word = (data[i] & 0xffL)
+					| (data[i + 1] & 0xffL) << 8
+					| (data[i + 2] & 0xffL) << 16
+					| (data[i + 3] & 0xffL) << 24
+					| (data[i + 4] & 0xffL) << 32
+					| (data[i + 5] & 0xffL) << 40
+					| (data[i + 6] & 0xffL) << 48
+					| (data[i + 7] & 0xffL) << 56;
+			h = (h ^ word) * 0x100000001b3L;
+		}
+		for(; i < to; i++) {
+			h = (h ^ (data[i] & 0xff)) * 0x100000001b3L;
+		}
+		return h ^ (h >>> 29);
+	}
+}
@@ -1,19 +1,114 @@
 package mod;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
 import javax.sound.sampled.*;
 
+import wave.SampleCodec;
+
 /**
  * @author Philipp Götzenberger
  * @author Tobias Haider
  * The converter class handles all input and output operations with audio files.
  * Files with the Format .mp3 and .wav can be loaded and saved into a Track object.
  * Track objects can be saved to a .wav file
+ * Loading and saving is measured by the Metrics class.
+ * With float processing enabled, loaded Tracks are converted to the 32 bit float working format
+ * and only quantized (clipped and dithered) again when they are saved.
+ * Files are streamed into a Track.Builder and out of Track.stream, so their length is not limited to 2 GB.
+ * MP3 files are decoded on a background thread into a GrowingBuffer, which can be played before decoding is done.
+ * Longer MP3 files are split at frame boundaries (see Mp3Index) and the parts are decoded in parallel.
  */
 public class Converter {
+
+	private static volatile boolean floatProcessing = false;	//Load Tracks in the float working format
+	private static final int SAVE_BITS = 16;	//Sample size of saved float Tracks
+	private static final int OVERLAP_FRAMES = 10;	//MP3 frames decoded before a part (bit reservoir, filter bank state)
+	private static final int MIN_PART_FRAMES = 1000;	//Smallest part decoded in parallel (about 26 s)
+	private static final int PARTS_PER_THREAD = 4;	//More parts than threads, so threads finishing early take another part
+	private static final long MIN_PARALLEL_BYTES = 2L * MIN_PART_FRAMES * 104;	//Two parts of the smallest frames (32 kbit/s at 44.1 kHz)
+
+	/**
+	 * @param enabled True to convert loaded Tracks to 32 bit float
+	 */
+	public static void setFloatProcessing(boolean enabled) {
+		floatProcessing = enabled;
+	}
+
+	/**
+	 * @return True if loaded Tracks are converted to 32 bit float
+	 */
+	public static boolean isFloatProcessing() {
+		return floatProcessing;
+	}
+
+	/**
+	 * Converts a freshly loaded Track to the working format.
+	 * @param t Loaded Track
+	 * @return t, or t converted to float if float processing is enabled
+	 */
+	private static Track working(Track t) {
+		return working(t, floatProcessing);
+	}
+
+	/**
+	 * Converts a freshly loaded Track to a given working format.
+	 * @param t Loaded Track
+	 * @param toFloat True to convert t to float
+	 * @return t, or t converted to float
+	 */
+	private static Track working(Track t, boolean toFloat) {
+		if(!toFloat || t == null) {
+			return t;
+		}
+		Track converted = Modifier.toFloat(t);
+		return new Track.Builder(t.getName(), converted.getFormat()).write(converted, 0, converted.getSize()).build(false);
+	}
 	
+	/**
+	 * @param f File
+	 * @return True if f is a .wav or .mp3 file which can be loaded
+	 */
+	public static boolean isAudioFile(File f) {
+		String path = f.getPath();
+		return (path.endsWith("wav") || path.endsWith("mp3")) && !f.isDirectory();
+	}
+
+	/**
+	 * Loads a .wav or .mp3 file, the loader is chosen by the file extension.
+	 * @param f Audio file
+	 * @return Track object, null if f is no audio file or could not be loaded
+	 */
+	public static Track load(File f) {
+		return load(f, floatProcessing);
+	}
+
+	/**
+	 * Loads a .wav or .mp3 file in a given working format, independent of the float processing setting
+	 * (e.g. to replay the edits of a project in the format they were made in).
+	 * @param f Audio file
+	 * @param toFloat True to convert the Track to float
+	 * @return Track object, null if f is no audio file or could not be loaded
+	 */
+	public static Track load(File f, boolean toFloat) {
+		try {
+			if(f.getPath().endsWith("wav")) {
+				return working(readWav(f), toFloat);
+			}
+			if(f.getPath().endsWith("mp3")) {
+				return working(readMP3(f), toFloat);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	/**
 	 * Gets data from a .mp3 file and saves it in a Track object
 	 * @param f .mp3 File
@@ -23,31 +118,197 @@ public class Converter {
 	 * @throws Exception
 	 */
 	public static Track getTrackFromMP3 (File f)  throws UnsupportedAudioFileException, IllegalArgumentException, Exception  {
-		byte[] bytes;
-		
-			try (final AudioInputStream in = AudioSystem.getAudioInputStream(f)){
-				AudioFormat baseFormat = in.getFormat();
-				AudioFormat decodedFormat = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 
-															baseFormat.getSampleRate(),
-															16,
-															baseFormat.getChannels(),
-															baseFormat.getChannels() * 2,
-															baseFormat.getSampleRate(),
-															false);
-			try (final ByteArrayOutputStream out = new ByteArrayOutputStream(); 
-				 final AudioInputStream decodedIn = AudioSystem.getAudioInputStream(decodedFormat, in)){
+		return working(readMP3(f));
+	}
+
+	/**
+	 * Decodes a .mp3 file without converting it to the working format.
+	 * @param f .mp3 File
+	 * @return Decoded 16 bit Track
+	 * @throws Exception Error of the decoder
+	 */
+	private static Track readMP3(File f) throws Exception {
+		if(f.length() < MIN_PARALLEL_BYTES || threads() < 2) {	//Too short for two parts, not read into memory
+			return streamMP3(f).awaitTrack();
+		}
+		byte[] data = Files.readAllBytes(f.toPath());
+		Mp3Index index = Mp3Index.of(data);
+		Track t = decodeParallel(f.getName(), data, index);
+		if(t != null) {
+			return t;
+		}
+		AudioInputStream in = AudioSystem.getAudioInputStream(new ByteArrayInputStream(data));	//Unusual streams are decoded in one piece
+		return stream(f.getName(), in, -1).awaitTrack();
+	}
+
+	/**
+	 * @return Number of threads decoding the parts of a file
+	 */
+	private static int threads() {
+		return ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool().getParallelism() : ForkJoinPool.getCommonPoolParallelism() + 1;
+	}
+
+	/**
+	 * Decodes an .mp3 file in parts on the current ForkJoinPool (the common pool, or the pool of the Batch).
+	 * Every part starts OVERLAP_FRAMES frames early, so the bit reservoir and the filter banks are filled
+	 * when its first frame is decoded; the samples of the overlap are dropped. Parts are a multiple of
+	 * a chunk long, so the parts are joined without copying.
+	 * @param name Name of the Track
+	 * @param data Content of the file
+	 * @param index Frame index of data
+	 * @return Decoded Track, null if the file is too short or a decoder did not return one frame of samples per frame
+	 */
+	private static Track decodeParallel(String name, byte[] data, Mp3Index index) {
+		int frames = index.getFrames();
+		int threads = threads();
+		int frameBytes = index.getSamplesPerFrame() * 2;	//Decoded bytes of a mono frame, stereo frames are twice as long
+		int align = ChunkStore.CHUNK_SIZE >> Math.min(ChunkStore.CHUNK_SHIFT, Integer.numberOfTrailingZeros(Math.max(1, frameBytes)));
+		int partFrames = Math.max(MIN_PART_FRAMES, (frames + threads * PARTS_PER_THREAD - 1) / (threads * PARTS_PER_THREAD));
+		partFrames = (partFrames + align - 1) / align * align;	//Multiple of a chunk for mono and stereo
+		int parts = (frames + partFrames - 1) / partFrames;
+		if(threads < 2 || parts < 2) {
+			return null;
+		}
+		try (final Metrics.Timer m = Metrics.start("loadMP3Parallel", 0)) {
+			final int size = partFrames;
+			Track[] decoded = new Track[parts];
+			IntStream.range(0, parts).parallel().forEach(i ->
+					decoded[i] = decodePart(name, data, index, i * size, Math.min(frames, (i + 1) * size)));
+			Track.Builder out = null;
+			for(Track part : decoded) {
+				if(part == null) {
+					return null;
+				}
+				if(out == null) {
+					out = new Track.Builder(name, part.getFormat());
+				}
+				out.write(part, 0, part.getSize());	//Shares the chunks
+			}
+			m.setSamples(out.size() / 2);
+			return out.build(false);
+		}
+	}
+
+	/**
+	 * Decodes the frames from, ..., to - 1 of an .mp3 file.
+	 * @param name Name of the Track
+	 * @param data Content of the file
+	 * @param index Frame index of data
+	 * @param from First frame
+	 * @param to End frame (exclusive)
+	 * @return Samples of the frames, null if decoding failed or returned the wrong number of samples
+	 */
+	private static Track decodePart(String name, byte[] data, Mp3Index index, int from, int to) {
+		int start = Math.max(0, from - OVERLAP_FRAMES);
+		int end = Math.min(index.getFrames(), to + 1);	//One more frame, in case the decoder holds back samples
+		ByteArrayInputStream bytes = new ByteArrayInputStream(data, index.getOffset(start), index.getOffset(end) - index.getOffset(start));
+		try (final AudioInputStream in = AudioSystem.getAudioInputStream(bytes);
+			 final AudioInputStream decodedIn = AudioSystem.getAudioInputStream(decodedFormat(in.getFormat()), in)) {
+			int frameSize = decodedIn.getFormat().getFrameSize();
+			long samplesPerFrame = index.getSamplesPerFrame();
+			long skip = (from - start) * samplesPerFrame * frameSize;
+			long keep = (to - from) * samplesPerFrame * frameSize;
+			Track.Builder out = new Track.Builder(name, decodedIn.getFormat());
+			byte[] buffer = new byte[8192];
+			long pos = 0;	//Bytes decoded so far
+			int readCount;
+			while((readCount = decodedIn.read(buffer, 0, buffer.length)) != -1) {
+				int first = (int)Math.max(0, Math.min(readCount, skip - pos));	//Overlap at the start
+				int n = (int)Math.min(readCount - first, keep - out.size());
+				out.write(buffer, first, n);
+				pos += readCount;
+			}
+			if(pos != (end - start) * samplesPerFrame * frameSize) {	//Not one frame of samples per frame, stitching would not be exact
+				return null;
+			}
+			return out.build(false);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param baseFormat Format of an .mp3 stream
+	 * @return 16 bit PCM format with the same sample rate and channels
+	 */
+	private static AudioFormat decodedFormat(AudioFormat baseFormat) {
+		return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 
+								baseFormat.getSampleRate(),
+								16,
+								baseFormat.getChannels(),
+								baseFormat.getChannels() * 2,
+								baseFormat.getSampleRate(),
+								false);
+	}
+
+	/**
+	 * Starts decoding a .mp3 file on a background thread and returns at once.
+	 * The decoded data can be played and drawn while decoding goes on.
+	 * @param f .mp3 File
+	 * @return Buffer filled by the decoder
+	 * @throws UnsupportedAudioFileException
+	 * @throws Exception
+	 */
+	public static GrowingBuffer streamMP3(File f) throws UnsupportedAudioFileException, Exception {
+		Object duration = AudioSystem.getAudioFileFormat(f).properties().get("duration");	//Microseconds, if the decoder knows it
+		return stream(f.getName(), AudioSystem.getAudioInputStream(f), duration instanceof Long ? (Long)duration : -1);
+	}
+
+	/**
+	 * Starts decoding an .mp3 stream on a background thread and returns at once.
+	 * @param name Name of the Track
+	 * @param in Encoded stream, closed when decoding ends
+	 * @param duration Expected duration in microseconds, -1 if unknown
+	 * @return Buffer filled by the decoder
+	 */
+	private static GrowingBuffer stream(String name, AudioInputStream in, long duration) {
+		AudioFormat baseFormat = in.getFormat();
+		AudioFormat decodedFormat = decodedFormat(baseFormat);
+		final AudioInputStream decodedIn;
+		try {
+			decodedIn = AudioSystem.getAudioInputStream(decodedFormat, in);
+		} catch (IllegalArgumentException e) {	//No decoder for this format
+			try {
+				in.close();
+			} catch (IOException closeError) {
+				e.addSuppressed(closeError);
+			}
+			throw e;
+		}
+		final GrowingBuffer out = new GrowingBuffer(name, decodedFormat);
+		if(duration >= 0) {
+			out.setExpectedSize((long)(duration / 1e6 * baseFormat.getSampleRate()) * decodedFormat.getFrameSize());
+		}
+		Thread decoder = new Thread(() -> {
+			try (final Metrics.Timer m = Metrics.start("loadMP3", 0);
+				 AudioInputStream decoded = decodedIn) {	//Closes in as well
 				  byte [] buffer = new byte[8192];
 		            while(true){
-		                int readCount = decodedIn.read(buffer, 0, buffer.length);
+		                int readCount = decoded.read(buffer, 0, buffer.length);
 		                if(readCount == -1){
 		                    break;
 		                }
 		                out.write(buffer, 0, readCount);
 		            }
-		            bytes = out.toByteArray();
-		            return new Track(f.getName(), bytes, in.getFormat());
-				}
+		            out.finish();
+		            m.setSamples(out.getSize() / 2);
+			} catch (Exception e) {
+				out.fail(e);
 			}
+		}, "decoder " + name);
+		decoder.setDaemon(true);
+		decoder.start();
+		return out;
+	}
+
+	/**
+	 * Waits until a buffer is completely decoded.
+	 * @param b Buffer filled by a decoder (see streamMP3)
+	 * @return Finished Track in the working format
+	 * @throws Exception Error of the decoder
+	 */
+	public static Track getTrack(GrowingBuffer b) throws Exception {
+		return working(b.awaitTrack());
 	}
 	
 	/**
@@ -56,42 +317,54 @@ public class Converter {
 	 * @return Track object with data from a .wav file
 	 */
 	public static Track getTrackFromWav(File f) {	
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		AudioInputStream in;
-		try {
-			in = AudioSystem.getAudioInputStream(f);
+		return working(readWav(f));
+	}
+
+	/**
+	 * Reads a .wav file without converting it to the working format.
+	 * @param f .wav File
+	 * @return Track object, null if the file could not be read
+	 */
+	private static Track readWav(File f) {
+		Track t;
+		try (Metrics.Timer m = Metrics.start("loadWav", 0);
+			 AudioInputStream in = AudioSystem.getAudioInputStream(f)) {
+			Track.Builder out = new Track.Builder(f.getName(), in.getFormat());
 			int read;
-			byte[] buff = new byte[1024];
+			byte[] buff = new byte[65536];
 			while ((read = in.read(buff)) > 0) {
 			    out.write(buff, 0, read);
 			}
-			out.flush();
+			m.setSamples(out.size() / Math.max(1, in.getFormat().getSampleSizeInBits() / 8));
+			t = out.build(false);
 		} catch (Exception e) {
 			e.printStackTrace();
 			return null;
 		}
 		
-		byte[] audioBytes = out.toByteArray();
-		
-		return new Track(f.getName(), audioBytes, in.getFormat());
+		return t;
 	}
 	
 	/**
 	 * Saves Track object in .wav File
+	 * Float Tracks are clipped and dithered to 16 bit.
 	 * @param t Track object 
 	 * @param name Name of the created file
 	 * @param parentFolder Location where the file is saved
 	 */
 	public static void save(Track t, String name, File parentFolder) {
-		byte[] bytes = t.getData();
-
-		AudioInputStream ais = new AudioInputStream(new ByteArrayInputStream(bytes), t.getFormat(),
-                bytes.length / t.getFormat().getFrameSize());
+		if(SampleCodec.isFloat(t.getFormat())) {
+			AudioFormat f = t.getFormat();
+			t = Modifier.convert(t, new AudioFormat(f.getSampleRate(), SAVE_BITS, f.getChannels(), true, false));
+		}
+		AudioInputStream ais = new AudioInputStream(t.stream(), t.getFormat(), t.getFrames());
 
-		try {
-		    AudioSystem.write(ais, AudioFileFormat.Type.WAVE, new File(parentFolder + File.separator + name +".wav"));
-        } catch(Exception e) {
-		    e.printStackTrace();
-        }
+		Metrics.run("save", Modifier.samples(t), () -> {
+			try {
+				AudioSystem.write(ais, AudioFileFormat.Type.WAVE, new File(parentFolder + File.separator + name +".wav"));
+			} catch(Exception e) {
+				e.printStackTrace();
+			}
+		});
 	}
 }
@@ -0,0 +1,182 @@
+package mod;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the Tracks of a directory up to date. All audio files are loaded once, afterwards a WatchService reports
+ * created, changed and deleted files and only these files are loaded again or removed.
+ * A file which is still being written causes many events, so every event only (re)starts a timer of DEBOUNCE_MS
+ * for its file and the file is loaded when it did not change for that time.
+ * Loading runs on a background thread, the Listener is called on that thread as well.
+ * @author Tobias Haider
+ */
+public class DirectoryWatcher implements Closeable {
+
+	private static final long DEBOUNCE_MS = 500;	//Time without events before a file is loaded
+
+	/**
+	 * Receives the changes of the directory.
+	 */
+	public interface Listener {
+		/**
+		 * A file was loaded for the first time or loaded again after it changed.
+		 * @param f Audio file
+		 * @param t New Track of the file
+		 */
+		void loaded(File f, Track t);
+
+		/**
+		 * A file was deleted (or renamed).
+		 * @param f Audio file which does not exist anymore
+		 */
+		void removed(File f);
+	}
+
+	private final Path dir;	//Watched directory
+	private final Listener listener;
+	private final WatchService service;
+	private final ScheduledExecutorService loader;	//Loads the files one after the other
+	private final Map<Path, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();	//Debounce timer of every file, removed when it fires
+	private volatile boolean closed;	//Set by close, no more timers are started
+
+	/**
+	 * Starts watching a directory. All audio files already in it are loaded first.
+	 * @param directory Directory
+	 * @param listener Receives loaded and removed files
+	 * @throws IOException if the directory can not be watched
+	 */
+	public DirectoryWatcher(File directory, Listener listener) throws IOException {
+		this.dir = directory.toPath();
+		this.listener = listener;
+		this.service = FileSystems.getDefault().newWatchService();
+		dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+		this.loader = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "library " + directory.getName());
+			t.setDaemon(true);
+			return t;
+		});
+		scan(0);	//Registered before the scan, so no file written in between is missed
+		Thread events = new Thread(this::run, "watcher " + directory.getName());
+		events.setDaemon(true);
+		events.start();
+	}
+
+	/**
+	 * Schedules all audio files of the directory.
+	 * @param delay Delay in ms
+	 */
+	private void scan(long delay) {
+		File[] files = dir.toFile().listFiles();
+		if(files != null) {
+			for(File f : files) {
+				if(Converter.isAudioFile(f)) {
+					schedule(f.toPath(), delay);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Event loop of the WatchService, ends when the watcher is closed.
+	 */
+	private void run() {
+		try {
+			while(true) {
+				WatchKey key = service.take();
+				for(WatchEvent<?> e : key.pollEvents()) {
+					if(e.kind() == StandardWatchEventKinds.OVERFLOW) {	//Events were lost, check every file
+						scan(DEBOUNCE_MS);
+					} else {
+						Path p = dir.resolve((Path)e.context());
+						if(Converter.isAudioFile(p.toFile())) {
+							schedule(p, DEBOUNCE_MS);
+						}
+					}
+				}
+				if(!key.reset()) {	//Directory was deleted
+					return;
+				}
+			}
+		} catch(InterruptedException | ClosedWatchServiceException e) {
+			//Closed
+		}
+	}
+
+	/**
+	 * Starts the debounce timer of a file again.
+	 * @param p Path of the file
+	 * @param delay Delay in ms
+	 */
+	private void schedule(Path p, long delay) {
+		AtomicReference<ScheduledFuture<?>> timer = new AtomicReference<>();	//Set before the task can remove it
+		pending.compute(p, (path, old) -> {
+			if(old != null) {
+				old.cancel(false);
+			}
+			if(closed) {
+				return null;
+			}
+			try {
+				timer.set(loader.schedule(() -> {
+					pending.computeIfPresent(path, (key, current) -> current == timer.get() ? null : current);	//Unless restarted
+					refresh(path);
+				}, delay, TimeUnit.MILLISECONDS));
+			} catch(RejectedExecutionException e) {	//Closed in the meantime
+				return null;
+			}
+			return timer.get();
+		});
+	}
+
+	/**
+	 * Loads a file again or reports it as removed.
+	 * @param p Path of the file
+	 */
+	private void refresh(Path p) {
+		File f = p.toFile();
+		if(!f.exists()) {
+			listener.removed(f);
+			return;
+		}
+		Track t = Converter.load(f);
+		if(t != null) {	//Incomplete files fail to load, the next write event tries again
+			listener.loaded(f, t);
+		}
+	}
+
+	/**
+	 * @return Watched directory
+	 */
+	public File getDirectory() {
+		return dir.toFile();
+	}
+
+	/**
+	 * Stops watching, loads which already started are finished.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		loader.shutdownNow();
+		pending.clear();
+		service.close();
+	}
+}
@@ -0,0 +1,365 @@
+package mod;
+
+import javax.sound.sampled.AudioFormat;
+
+import java.util.Arrays;
+
+import wave.SampleCodec;
+
+/**
+ * Lazy chain of modifications on a Track.
+ * Every call (volume, fadeIn, ...) only adds a node to the chain and returns the new Edit, no audio data is touched.
+ * Sample-wise operations following each other (volume, fadeIn, fadeOut) are fused into a single gain stage,
+ * so rendering applies all of them in one loop and clamps the result only once.
+ * Only the requested range is evaluated, e.g. Edit.of(t).volume(80).fadeIn(2).fadeOut(30).render()
+ * or render(from, to) when playback starts at a seek position.
+ * Any PCM format is supported, samples are converted with a SampleCodec.
+ * @author Tobias Haider
+ */
+public abstract class Edit {
+
+	protected final String name;	//Name of the rendered Track
+	protected final AudioFormat format;	//Audio format of source and result
+	protected final int frameSize;	//Bytes per frame (all channels)
+	private static final int RENDER_BLOCK = 16 * ChunkStore.CHUNK_SIZE;	//Bytes evaluated at once by render
+
+	/**
+	 * @param name Name of the rendered Track
+	 * @param format Audio format
+	 */
+	private Edit(String name, AudioFormat format) {
+		this.name = name;
+		this.format = format;
+		this.frameSize = format.getFrameSize();
+	}
+
+	/**
+	 * Starts a new chain of modifications.
+	 * @param t Track used for modification
+	 * @return Edit returning the unmodified Track data
+	 */
+	public static Edit of(Track t) {
+		return new Source(t);
+	}
+
+	/**
+	 * @return Length of the result in bytes
+	 */
+	public abstract long size();
+
+	/**
+	 * Evaluates the chain for a range of the result.
+	 * The caller guarantees 0 <= pos and pos + len <= size().
+	 * @param pos Absolute position in the result
+	 * @param dst Destination array
+	 * @param off Offset in the destination array
+	 * @param len Number of bytes to produce
+	 */
+	abstract void evaluate(long pos, byte[] dst, int off, int len);
+
+	/**
+	 * Reads a part of the result, like Track.read, but only evaluates the requested bytes.
+	 * @param pos Absolute position in the result
+	 * @param dst Destination array
+	 * @param off Offset in the destination array
+	 * @param len Maximal number of bytes to read
+	 * @return Number of bytes read, -1 if pos is at the end of the result
+	 */
+	public int read(long pos, byte[] dst, int off, int len) {
+		if(pos >= size()) {
+			return -1;
+		}
+		len = (int)Math.min(len, size() - pos);
+		evaluate(pos, dst, off, len);
+		return len;
+	}
+
+	/**
+	 * Scales all samples by a percentage (see Modifier.volume).
+	 * @param percentage Scaling factor in percent
+	 * @return New Edit
+	 */
+	public Edit volume(int percentage) {
+		return gain(0, 0, percentage / 100.0, percentage / 100.0);
+	}
+
+	/**
+	 * Scales all samples by a linear factor (e.g. the gain computed by Modifier.normalize).
+	 * @param factor Scaling factor, 1 leaves the data unchanged
+	 * @return New Edit
+	 */
+	public Edit scale(double factor) {
+		return gain(0, 0, factor, factor);
+	}
+
+	/**
+	 * Linear fade in from the start (see Modifier.fadeIn).
+	 * @param to End of the fade in seconds
+	 * @return New Edit
+	 */
+	public Edit fadeIn(double to) {
+		return gain(0, toFrame(to), 0, 1);
+	}
+
+	/**
+	 * Linear fade out to the end (see Modifier.fadeOut).
+	 * @param from Start of the fade in seconds
+	 * @return New Edit
+	 */
+	public Edit fadeOut(double from) {
+		return gain(toFrame(from), size() / frameSize, 1, 0);
+	}
+
+	/**
+	 * Inserts silence (see Modifier.addSil).
+	 * @param pos Position in seconds
+	 * @param seconds Length of the silence in seconds
+	 * @return New Edit
+	 */
+	public Edit addSil(double pos, double seconds) {
+		return new Silence(this, Math.min(toFrame(pos) * frameSize, size()), toFrame(seconds) * frameSize);
+	}
+
+	/**
+	 * Cuts away a part (see Modifier.cut).
+	 * @param from Start in seconds
+	 * @param to End in seconds
+	 * @return New Edit
+	 */
+	public Edit cut(double from, double to) {
+		long fromPos = Math.min(toFrame(from) * frameSize, size());
+		long toPos = Math.min(toFrame(to) * frameSize, size());
+		return new Cut(this, fromPos, Math.max(fromPos, toPos));
+	}
+
+	/**
+	 * Evaluates the whole chain in a single pass.
+	 * @return New modified Track object
+	 */
+	public Track render() {
+		return render(0, size());
+	}
+
+	/**
+	 * Evaluates only a part of the chain.
+	 * @param from Start in seconds
+	 * @param to End in seconds
+	 * @return New modified Track object containing only the requested part
+	 */
+	public Track render(double from, double to) {
+		long fromPos = Math.min(toFrame(from) * frameSize, size());
+		long toPos = Math.max(fromPos, Math.min(toFrame(to) * frameSize, size()));
+		return render(fromPos, toPos);
+	}
+
+	/**
+	 * Evaluates a byte range in blocks of whole chunks, so results of any length can be rendered.
+	 * @param fromPos Start in bytes (frame aligned)
+	 * @param toPos End in bytes
+	 * @return New modified Track object
+	 */
+	private Track render(long fromPos, long toPos) {
+		return Metrics.time("editRender", (toPos - fromPos) / Math.max(1, format.getSampleSizeInBits() / 8), () -> {
+			Track.Builder builder = new Track.Builder(name, format);
+			byte[] block = new byte[(int)Math.min(toPos - fromPos, RENDER_BLOCK)];
+			for(long pos = fromPos; pos < toPos; pos += block.length) {
+				int n = (int)Math.min(block.length, toPos - pos);
+				evaluate(pos, block, 0, n);
+				builder.write(block, 0, n);
+			}
+			return builder.build(true);
+		});
+	}
+
+	/**
+	 * Adds a gain ramp, fusing it into the previous stage if that is a gain stage as well.
+	 */
+	private Edit gain(long startFrame, long endFrame, double startGain, double endGain) {
+		Gain previous = this instanceof Gain ? (Gain)this : null;
+		return new Gain(previous == null ? this : previous.parent, previous, startFrame, endFrame, startGain, endGain);
+	}
+
+	/**
+	 * Conversion from seconds to a frame index.
+	 * @param seconds Position in seconds
+	 * @return Frame index (not negative)
+	 */
+	private long toFrame(double seconds) {
+		return Math.max(0, (long)(seconds * format.getFrameRate()));
+	}
+
+	/**
+	 * Unmodified data of a Track.
+	 */
+	private static final class Source extends Edit {
+		private final Track track;
+
+		private Source(Track track) {
+			super(track.getName(), track.getFormat());
+			this.track = track;
+		}
+
+		@Override
+		public long size() {
+			return track.getSize();
+		}
+
+		@Override
+		void evaluate(long pos, byte[] dst, int off, int len) {
+			track.read(pos, dst, off, len);
+		}
+	}
+
+	/**
+	 * Fused sample-wise stage. The gain of a frame is the product of all ramps.
+	 * A ramp is constant (startGain) before startFrame and constant (endGain) after endFrame.
+	 */
+	private static final class Gain extends Edit {
+		private final Edit parent;
+		private final long[] startFrames, endFrames;
+		private final double[] startGains, endGains;
+
+		private Gain(Edit parent, Gain previous, long startFrame, long endFrame, double startGain, double endGain) {
+			super(parent.name, parent.format);
+			this.parent = parent;
+			int n = previous == null ? 0 : previous.startFrames.length;
+			startFrames = previous == null ? new long[1] : Arrays.copyOf(previous.startFrames, n + 1);
+			endFrames = previous == null ? new long[1] : Arrays.copyOf(previous.endFrames, n + 1);
+			startGains = previous == null ? new double[1] : Arrays.copyOf(previous.startGains, n + 1);
+			endGains = previous == null ? new double[1] : Arrays.copyOf(previous.endGains, n + 1);
+			startFrames[n] = startFrame;
+			endFrames[n] = endFrame;
+			startGains[n] = startGain;
+			endGains[n] = endGain;
+		}
+
+		@Override
+		public long size() {
+			return parent.size();
+		}
+
+		@Override
+		void evaluate(long pos, byte[] dst, int off, int len) {
+			long start = pos - pos % frameSize;	//Only whole frames can be processed
+			long end = Math.min(size(), (pos + len + frameSize - 1) / frameSize * frameSize);
+			if(start == pos && end == pos + len) {
+				parent.evaluate(pos, dst, off, len);
+				apply(start / frameSize, dst, off, len);
+			} else {
+				byte[] frames = new byte[(int)(end - start)];
+				parent.evaluate(start, frames, 0, frames.length);
+				apply(start / frameSize, frames, 0, frames.length);
+				System.arraycopy(frames, (int)(pos - start), dst, off, len);
+			}
+		}
+
+		/**
+		 * Applies all ramps to whole frames in one loop.
+		 * @param frame Index of the first frame
+		 * @param data Frame aligned audio bytes
+		 * @param off Offset in data
+		 * @param len Number of bytes (multiple of the frame size)
+		 */
+		private void apply(long frame, byte[] data, int off, int len) {
+			SampleCodec codec = SampleCodec.forFormat(format);
+			int blockFrames = 4096;
+			float[][] block = new float[codec.getChannels()][blockFrames];
+			int end = off + len - len % frameSize;
+			for(int i = off; i < end; i += blockFrames * frameSize) {
+				int frames = Math.min(blockFrames, (end - i) / frameSize);
+				codec.decode(data, i, block, 0, frames);
+				for(int f = 0; f < frames; f++, frame++) {
+					double g = 1;
+					for(int r = 0; r < startFrames.length; r++) {
+						if(frame < startFrames[r]) {
+							g *= startGains[r];
+						} else if(frame >= endFrames[r]) {
+							g *= endGains[r];
+						} else {
+							g *= startGains[r] + (endGains[r] - startGains[r])
+									* (frame - startFrames[r]) / (endFrames[r] - startFrames[r]);
+						}
+					}
+					for(float[] c : block) {
+						c[f] *= g;
+					}
+				}
+				codec.encode(block, 0, data, i, frames);	//Clamped only once
+			}
+		}
+	}
+
+	/**
+	 * Inserted silence of a fixed length at a fixed position.
+	 */
+	private static final class Silence extends Edit {
+		private final Edit parent;
+		private final long at, length;
+
+		private Silence(Edit parent, long at, long length) {
+			super(parent.name, parent.format);
+			this.parent = parent;
+			this.at = at;
+			this.length = length;
+		}
+
+		@Override
+		public long size() {
+			return parent.size() + length;
+		}
+
+		@Override
+		void evaluate(long pos, byte[] dst, int off, int len) {
+			long end = pos + len;
+			if(pos < at) {	//Part before the silence
+				int n = (int)(Math.min(end, at) - pos);
+				parent.evaluate(pos, dst, off, n);
+				off += n;
+				pos += n;
+			}
+			if(pos < at + length && pos < end) {	//Silence
+				int n = (int)(Math.min(end, at + length) - pos);
+				Arrays.fill(dst, off, off + n, (byte)0);
+				off += n;
+				pos += n;
+			}
+			if(pos < end) {	//Part after the silence
+				parent.evaluate(pos - length, dst, off, (int)(end - pos));
+			}
+		}
+	}
+
+	/**
+	 * Removed range [from, to) of the parent.
+	 */
+	private static final class Cut extends Edit {
+		private final Edit parent;
+		private final long from, to;
+
+		private Cut(Edit parent, long from, long to) {
+			super(parent.name, parent.format);
+			this.parent = parent;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public long size() {
+			return parent.size() - (to - from);
+		}
+
+		@Override
+		void evaluate(long pos, byte[] dst, int off, int len) {
+			long end = pos + len;
+			if(pos < from) {	//Part before the cut
+				int n = (int)(Math.min(end, from) - pos);
+				parent.evaluate(pos, dst, off, n);
+				off += n;
+				pos += n;
+			}
+			if(pos < end) {	//Part after the cut
+				parent.evaluate(pos + (to - from), dst, off, (int)(end - pos));
+			}
+		}
+	}
+}
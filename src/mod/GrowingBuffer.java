@@ -0,0 +1,212 @@
+package mod;
+
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Audio data which is still being decoded. One decoder thread appends bytes, any number of readers
+ * (Player, Waveform) can read the part which is already there while the decoder goes on.
+ * Complete chunks are interned in the ChunkStore and published by increasing the volatile size,
+ * so reading never needs a lock. Only a reader which caught up with the decoder waits for the next chunk.
+ * When decoding is done the chunks become a normal Track without copying.
+ * @author Tobias Haider
+ */
+public class GrowingBuffer implements AudioSource {
+
+	private final String name;	//Name of the Track
+	private final AudioFormat format;	//Audio format
+	private volatile byte[][] chunks = new byte[16][];	//Published chunks, replaced by a larger copy when full
+	private volatile long size = 0;	//Published bytes, everything below can be read
+	private volatile long expectedSize = -1;	//Estimated final size, -1 if unknown
+	private volatile Track track;	//Finished Track, null while decoding
+	private volatile Exception error;	//Reason why decoding failed, null if it did not
+	private final byte[] pending = new byte[ChunkStore.CHUNK_SIZE];	//Chunk being filled by the decoder
+	private int fill = 0;	//Bytes in pending
+	private int count = 0;	//Number of published chunks
+
+	/**
+	 * Constructor for an empty buffer
+	 * @param name Name of the Track
+	 * @param format Audio format of the decoded data
+	 */
+	public GrowingBuffer(String name, AudioFormat format) {
+		this.name = name;
+		this.format = format;
+	}
+
+	/**
+	 * Appends decoded data, only called by the decoder thread.
+	 * @param data Audio bytes
+	 * @param off Offset in data
+	 * @param len Number of bytes
+	 */
+	public void write(byte[] data, int off, int len) {
+		while(len > 0) {
+			int n = Math.min(len, pending.length - fill);
+			System.arraycopy(data, off, pending, fill, n);
+			fill += n;
+			off += n;
+			len -= n;
+			if(fill == pending.length) {
+				publish(ChunkStore.intern(pending, 0, fill));
+				fill = 0;
+			}
+		}
+	}
+
+	/**
+	 * Makes a chunk visible to the readers and wakes up the waiting ones.
+	 * @param chunk Interned chunk
+	 */
+	private void publish(byte[] chunk) {
+		byte[][] c = chunks;
+		if(count == c.length) {
+			c = Arrays.copyOf(c, 2 * count);
+		}
+		c[count++] = chunk;
+		chunks = c;	//Written before the size, so readers seeing the size also see the chunk
+		synchronized(this) {
+			size += chunk.length;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Ends decoding, only called by the decoder thread. The data is available as Track afterwards.
+	 */
+	public void finish() {
+		if(fill > 0) {
+			publish(ChunkStore.intern(pending, 0, fill));
+			fill = 0;
+		}
+		Track t = new Track(name, Arrays.copyOf(chunks, count), size, format, false);
+		synchronized(this) {
+			track = t;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Ends decoding because of an error, only called by the decoder thread.
+	 * Readers get the end of the data, awaitTrack throws the error.
+	 * @param e Reason
+	 */
+	public void fail(Exception e) {
+		synchronized(this) {
+			error = e;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return True if decoding is done or failed
+	 */
+	public boolean isFinished() {
+		return track != null || error != null;
+	}
+
+	/**
+	 * Waits until decoding is done.
+	 * @return Finished Track
+	 * @throws Exception Error of the decoder, InterruptedException if the waiting thread is interrupted
+	 */
+	public synchronized Track awaitTrack() throws Exception {
+		while(!isFinished()) {
+			wait();
+		}
+		if(error != null) {
+			throw error;
+		}
+		return track;
+	}
+
+	/**
+	 * Copies a part of the data. Blocks while pos is beyond the decoded part and decoding goes on.
+	 * @param pos Absolute position in the audio data
+	 * @param dst Destination array
+	 * @param off Offset in the destination array
+	 * @param len Maximal number of bytes to copy
+	 * @return Number of bytes copied, -1 if pos is at the end of the finished data (or the thread was interrupted)
+	 */
+	@Override
+	public int read(long pos, byte[] dst, int off, int len) {
+		long available = size;
+		if(pos >= available) {
+			synchronized(this) {
+				while(pos >= size && !isFinished()) {
+					try {
+						wait();
+					} catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return -1;
+					}
+				}
+				available = size;
+			}
+			if(pos >= available) {
+				return -1;
+			}
+		}
+		byte[][] c = chunks;
+		len = (int)Math.min(len, available - pos);
+		int copied = 0;
+		while(copied < len) {
+			byte[] chunk = c[(int)(pos >>> ChunkStore.CHUNK_SHIFT)];
+			int inChunk = (int)(pos & (ChunkStore.CHUNK_SIZE - 1));
+			int n = Math.min(len - copied, chunk.length - inChunk);
+			System.arraycopy(chunk, inChunk, dst, off + copied, n);
+			copied += n;
+			pos += n;
+		}
+		return copied;
+	}
+
+	/**
+	 * @return Bytes decoded so far (only whole chunks until decoding is done)
+	 */
+	@Override
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @param expectedSize Estimated final size in bytes, -1 if unknown
+	 */
+	public void setExpectedSize(long expectedSize) {
+		this.expectedSize = expectedSize;
+	}
+
+	/**
+	 * @return Estimated final size in bytes (the real size once decoding is done), -1 if unknown
+	 */
+	public long getExpectedSize() {
+		return track != null ? size : expectedSize;
+	}
+
+	/**
+	 * @return Finished Track, null while decoding or if decoding failed
+	 */
+	public Track getTrack() {
+		return track;
+	}
+
+	/**
+	 * @return Reason why decoding failed, null while decoding or if it succeeded
+	 */
+	public Exception getError() {
+		return error;
+	}
+
+	/**
+	 * @return Name of the Track
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public AudioFormat getFormat() {
+		return format;
+	}
+}
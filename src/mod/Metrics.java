@@ -0,0 +1,212 @@
+package mod;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Lightweight in-process registry collecting timings, throughput and allocations per operation.
+ * Every measured operation is also committed as a JFR event (cutplay.Operation),
+ * so a flight recording shows the same data with thread and time stamp.
+ * Usage: return Metrics.time("cut", samples, () -> ...), or try(Metrics.Timer m = Metrics.start("cut", 0)) { ... }
+ * if the number of samples is only known at the end (Timer.setSamples).
+ * @author Tobias Haider
+ */
+public class Metrics {
+
+	private static final Map<String, Stat> stats = new ConcurrentHashMap<>();	//Operation name -> statistics
+	private static final com.sun.management.ThreadMXBean threads = threadBean();	//null if allocations can not be measured
+
+	/**
+	 * Accumulated values of one operation.
+	 */
+	private static class Stat {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+		private final LongAdder samples = new LongAdder();
+		private final LongAdder allocated = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+	}
+
+	/**
+	 * Measures one execution of an operation. Closing the Timer records the measurement.
+	 */
+	public static class Timer implements AutoCloseable {
+		private final String operation;
+		private final OperationEvent event = new OperationEvent();
+		private final long start = System.nanoTime();
+		private final long startAllocated = allocatedBytes();
+		private long samples;
+
+		private Timer(String operation, long samples) {
+			this.operation = operation;
+			this.samples = samples;
+			event.begin();
+		}
+
+		/**
+		 * Sets the number of processed samples, if it is only known at the end of the operation.
+		 * @param samples Number of samples
+		 */
+		public void setSamples(long samples) {
+			this.samples = samples;
+		}
+
+		@Override
+		public void close() {
+			long duration = System.nanoTime() - start;
+			long allocated = startAllocated < 0 ? 0 : allocatedBytes() - startAllocated;
+			event.end();
+			if(event.shouldCommit()) {
+				event.operation = operation;
+				event.samples = samples;
+				event.allocated = allocated;
+				event.commit();
+			}
+			add(operation, duration, samples, allocated);
+		}
+	}
+
+	/**
+	 * Measures one execution of an operation.
+	 * @param operation Name of the operation
+	 * @param samples Number of samples processed by the operation
+	 * @param body Operation
+	 * @return Result of the operation
+	 */
+	public static <T> T time(String operation, long samples, Supplier<T> body) {
+		Timer m = start(operation, samples);
+		try {
+			return body.get();
+		} finally {
+			m.close();
+		}
+	}
+
+	/**
+	 * Measures one execution of an operation without a result.
+	 * @param operation Name of the operation
+	 * @param samples Number of samples processed by the operation
+	 * @param body Operation
+	 */
+	public static void run(String operation, long samples, Runnable body) {
+		Timer m = start(operation, samples);
+		try {
+			body.run();
+		} finally {
+			m.close();
+		}
+	}
+
+	/**
+	 * Starts measuring an operation.
+	 * @param operation Name of the operation
+	 * @param samples Number of samples processed by the operation
+	 * @return Timer which has to be closed at the end of the operation
+	 */
+	public static Timer start(String operation, long samples) {
+		return new Timer(operation, samples);
+	}
+
+	/**
+	 * Records an event without duration, e.g. a buffer underrun.
+	 * @param operation Name of the event
+	 * @param samples Number of samples affected
+	 */
+	public static void record(String operation, long samples) {
+		record(operation, 0, samples);
+	}
+
+	/**
+	 * Records an operation which was measured elsewhere, e.g. the latency of a job from its submission to its end.
+	 * @param operation Name of the operation
+	 * @param nanos Duration in nanoseconds
+	 * @param samples Number of samples processed
+	 */
+	public static void record(String operation, long nanos, long samples) {
+		OperationEvent event = new OperationEvent();
+		if(event.shouldCommit()) {
+			event.operation = operation;
+			event.samples = samples;
+			event.commit();
+		}
+		add(operation, nanos, samples, 0);
+	}
+
+	/**
+	 * @param operation Name of the operation
+	 * @return Number of recorded executions
+	 */
+	public static long getCount(String operation) {
+		Stat s = stats.get(operation);
+		return s == null ? 0 : s.count.sum();
+	}
+
+	/**
+	 * Removes all recorded values.
+	 */
+	public static void reset() {
+		stats.clear();
+	}
+
+	/**
+	 * Formats all recorded values as a table, sorted by operation name.
+	 * @return Multi line String
+	 */
+	public static String report() {
+		StringBuilder sb = new StringBuilder(String.format("%-18s %7s %11s %10s %10s %12s %11s%n",
+				"operation", "count", "total ms", "avg ms", "max ms", "Msamples/s", "alloc MB"));
+		for(Map.Entry<String, Stat> e : new TreeMap<>(stats).entrySet()) {
+			Stat s = e.getValue();
+			long count = s.count.sum();
+			double totalMs = s.nanos.sum() / 1e6;
+			sb.append(String.format("%-18s %7d %11.1f %10.2f %10.2f %12.2f %11.1f%n",
+					e.getKey(), count, totalMs,
+					count == 0 ? 0 : totalMs / count,
+					s.maxNanos.get() / 1e6,
+					totalMs == 0 ? 0 : s.samples.sum() / totalMs / 1e3,
+					s.allocated.sum() / 1e6));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Adds a measurement to the registry.
+	 */
+	private static void add(String operation, long nanos, long samples, long allocated) {
+		Stat s = stats.computeIfAbsent(operation, o -> new Stat());
+		s.count.increment();
+		s.nanos.add(nanos);
+		s.samples.add(samples);
+		s.allocated.add(allocated);
+		s.maxNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	/**
+	 * @return Bytes allocated by the current thread so far, -1 if not supported
+	 */
+	private static long allocatedBytes() {
+		return threads == null ? -1 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * @return ThreadMXBean able to measure allocations, null if the JVM does not support it
+	 */
+	private static com.sun.management.ThreadMXBean threadBean() {
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if(bean instanceof com.sun.management.ThreadMXBean
+					&& ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()) {
+				((com.sun.management.ThreadMXBean)bean).setThreadAllocatedMemoryEnabled(true);
+				return (com.sun.management.ThreadMXBean)bean;
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+}
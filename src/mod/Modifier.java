@@ -1,12 +1,22 @@
 package mod;
 
+import wave.Aligner;
+import wave.BlockProcessor;
+import wave.Convolver;
+import wave.Dither;
+import wave.Dynamics;
+import wave.Loudness;
+import wave.Onsets;
+import wave.Resampler;
+import wave.SampleBuffer;
+import wave.SampleCodec;
+import wave.SilenceDetector;
 import wave.Wave;
 import wave.WaveEffect;
 
 import javax.sound.sampled.AudioFormat;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -16,168 +26,746 @@ import java.util.List;
  * All functions return a new Track object with the modified flag set to true.
  * Many functions simply delegate the task the WaveEffect class by calling the corresponding functions.
  * The reason for this is creating a simpler and uniform programming interface for the UI.
+ * Every function is measured by the Metrics class.
  * @author Tobias Haider
  * @author Daniel Binder
  * @author Philipp Götzenberger
  */
 public class Modifier {
+
+	private static final float AUTOCUT_WINDOW = 0.02f;	//RMS window of the silence detection in seconds
+	private static final float AUTOCUT_PADDING = 0.05f;	//Seconds kept around every cut
+	private static final float SNAP_RANGE = 0.5f;	//Seconds searched for a transient
+	private static final float ZERO_RANGE = 0.01f;	//Seconds searched for a zero crossing
+	private static final long MAX_WAVE_BYTES = Integer.MAX_VALUE / 2;	//Larger Tracks are processed by the Edit class
 	
 	/**
-	 * Cuts away parts of the byte array representing the audio data.
+	 * Cuts away parts of the audio data. Both positions are rounded down to whole frames.
+	 * Unchanged chunks before the cut are shared with the original Track.
 	 * @param t Track used for modification
 	 * @param from Start in seconds
 	 * @param to End in seconds
 	 * @return New modified Track object
 	 */
-	public static Track cut(Track t, float from, float to) {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		try {
-			out.write(Arrays.copyOfRange(t.getData(), 0, Modifier.calcPosition(t, from)));
-			out.write(Arrays.copyOfRange(t.getData(), Modifier.calcPosition(t, to), t.getData().length));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return new Track(t, out.toByteArray());
+	public static Track cut(Track t, double from, double to) {
+		return Metrics.time("cut", samples(t), () -> {
+			int frameSize = t.getFormat().getFrameSize();
+			long fromPos = t.frameAt(from) * frameSize;
+			long toPos = Math.max(fromPos, t.frameAt(to) * frameSize);
+			return builder(t)
+					.write(t, 0, fromPos)
+					.write(t, toPos, t.getSize() - toPos)
+					.build(true);
+		});
 	}
 	
 	/**
 	 * Calls fadeIn function from the WaveEffect class.
+	 * Float, 24 and 32 bit Tracks and very long Tracks are faded by the Edit class (no requantization, 64 bit positions).
 	 * @param t Track used for modification
 	 * @param to End in seconds
 	 * @return New modified Track object
 	 */
-	public static Track fadeIn(Track t, float to) {
-		return WaveEffect.fadeIn(Wave.createWave(t), to).toTrack(t.getName(), t.getFormat());
+	public static Track fadeIn(Track t, double to) {
+		return Metrics.time("fadeIn", samples(t), () -> {
+			if(!inWave(t)) {
+				return Edit.of(t).fadeIn(to).render();
+			}
+			return WaveEffect.fadeIn(Wave.createWave(t), (float)to).toTrack(t.getName(), t.getFormat());
+		});
 	}
 	
 	/**
 	 * Calls fadeOut function from the WaveEffect class.
+	 * Float, 24 and 32 bit Tracks and very long Tracks are faded by the Edit class (no requantization, 64 bit positions).
 	 * @param t Track used for modification
 	 * @param from Start in seconds
 	 * @return New modified Track object
 	 */
-	public static Track fadeOut(Track t, float from) {
-		return WaveEffect.fadeOut(Wave.createWave(t), from).toTrack(t.getName(), t.getFormat());
+	public static Track fadeOut(Track t, double from) {
+		return Metrics.time("fadeOut", samples(t), () -> {
+			if(!inWave(t)) {
+				return Edit.of(t).fadeOut(from).render();
+			}
+			return WaveEffect.fadeOut(Wave.createWave(t), (float)from).toTrack(t.getName(), t.getFormat());
+		});
 	}
 	
 	/**
-	 * Add bytes with the value 0 at a specific position. 
+	 * Add bytes with the value 0 at a specific position. Position and length are whole frames.
 	 * @param t Track used for modification
 	 * @param pos Position in seconds
 	 * @param seconds Length of the "silent" byte array in seconds
 	 * @return New modified Track object
 	 */
-	public static Track addSil(Track t, float pos, float seconds) {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		int arrPos = Modifier.calcPosition(t, pos);
-		byte[] silBytes = new byte[Modifier.calcPosition(t, seconds)];
-		try {
-			out.write(Arrays.copyOfRange(t.getData(), 0, arrPos));
-			out.write(silBytes);
-			out.write(Arrays.copyOfRange(t.getData(), arrPos, t.getData().length));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return new Track(t, out.toByteArray());
+	public static Track addSil(Track t, double pos, double seconds) {
+		return Metrics.time("addSil", samples(t), () -> {
+			long arrPos = t.frameAt(pos) * t.getFormat().getFrameSize();
+			return builder(t)
+					.write(t, 0, arrPos)
+					.writeSilence(calcPosition(t, seconds))
+					.write(t, arrPos, t.getSize() - arrPos)
+					.build(true);
+		});
 	}
 
 	/**
 	 * Call amplify function from the WaveEffect class.
+	 * Float, 24 and 32 bit Tracks and very long Tracks are scaled by the Edit class (no requantization, 64 bit positions).
 	 * @param t Track used for modification
 	 * @param percentage Scaling factor in percent
 	 * @return New modified Track object
 	 */
 	public static Track volume(Track t, int percentage) {
-		return WaveEffect.amplify(Wave.createWave(t), percentage).toTrack(t.getName(), t.getFormat());
+		return Metrics.time("volume", samples(t), () -> {
+			if(!inWave(t)) {
+				return Edit.of(t).volume(percentage).render();
+			}
+			return WaveEffect.amplify(Wave.createWave(t), percentage).toTrack(t.getName(), t.getFormat());
+		});
 	}
 	
 	/**
-	 * Call autoCut function from the WaveEffect class.
+	 * Pans a stereo Track using the planar SampleBuffer.
+	 * @param t Track used for modification (needs two channels)
+	 * @param position -100 = left, 0 = center, 100 = right
+	 * @return New modified Track object
+	 */
+	public static Track pan(Track t, int position) {
+		return Metrics.time("pan", samples(t), () -> {
+			return SampleBuffer.of(t).pan(position / 100.0).toTrack(t.getName(), t.getFormat());
+		});
+	}
+
+	/**
+	 * Changes the volume of a single channel using the planar SampleBuffer.
+	 * @param t Track used for modification
+	 * @param channel Index of the channel (0 = left)
+	 * @param percentage Scaling factor in percent
+	 * @return New modified Track object
+	 */
+	public static Track channelGain(Track t, int channel, int percentage) {
+		return Metrics.time("channelGain", samples(t), () -> {
+			return SampleBuffer.of(t).gain(channel, percentage / 100.0).toTrack(t.getName(), t.getFormat());
+		});
+	}
+
+	/**
+	 * Mixes all channels of a Track down to one channel.
+	 * @param t Track used for modification
+	 * @return New modified Track object with one channel
+	 */
+	public static Track downmix(Track t) {
+		return Metrics.time("downmix", samples(t), () -> {
+			AudioFormat f = t.getFormat();
+			AudioFormat mono = new AudioFormat(f.getEncoding(), f.getSampleRate(), f.getSampleSizeInBits(), 1,
+					f.getFrameSize() / f.getChannels(), f.getFrameRate(), f.isBigEndian());
+			return SampleBuffer.of(t).downmix().toTrack(t.getName(), mono);
+		});
+	}
+
+	/**
+	 * Scales a Track to a target loudness in two passes.
+	 * The first pass is the loudness analysis (cached on the Track), the second one applies the gain.
+	 * The gain is reduced if the true peak would exceed -1 dBTP, so normalizing never clips.
+	 * @param t Track used for modification
+	 * @param targetLufs Target integrated loudness in LUFS (e.g. -16 for podcasts, -23 for broadcast)
+	 * @return New modified Track object
+	 */
+	public static Track normalize(Track t, double targetLufs) {
+		Loudness l = t.getLoudness();
+		return Metrics.time("normalize", samples(t), () -> {
+			if(Double.isInfinite(l.getIntegrated()) || l.getTruePeak() == 0) {	//Silence can not be normalized
+				return builder(t).write(t, 0, t.getSize()).build(true);
+			}
+			double gain = Math.pow(10, (targetLufs - l.getIntegrated()) / 20);
+			gain = Math.min(gain, Math.pow(10, -1 / 20.0) / l.getTruePeak());
+			Track result = Edit.of(t).scale(gain).render();
+			result.setLoudness(l.scale(gain));
+			return result;
+		});
+	}
+
+	/**
+	 * Limits the peaks of a Track to a ceiling with a lookahead limiter, louder parts are turned down instead of clipped.
+	 * Combined with volume above 100 % this makes a Track louder without distortion.
+	 * @param t Track used for modification
+	 * @param ceilingDb Highest sample level in dB full scale (e.g. -1)
+	 * @return New modified Track object
+	 */
+	public static Track limit(Track t, double ceilingDb) {
+		return Metrics.time("limit", samples(t), () -> {
+			AudioFormat f = t.getFormat();
+			return process(t, Dynamics.limiter(f.getSampleRate(), f.getChannels(), ceilingDb), 0);
+		});
+	}
+
+	/**
+	 * Reduces the dynamic range of a Track with a lookahead compressor.
+	 * @param t Track used for modification
+	 * @param thresholdDb Level where the compression starts in dB full scale
+	 * @param ratio Compression ratio above the threshold (e.g. 4 for 4:1)
+	 * @return New modified Track object
+	 */
+	public static Track compress(Track t, double thresholdDb, double ratio) {
+		return Metrics.time("compress", samples(t), () -> {
+			AudioFormat f = t.getFormat();
+			return process(t, Dynamics.compressor(f.getSampleRate(), f.getChannels(), thresholdDb, ratio), 0);
+		});
+	}
+
+	/**
+	 * Mutes everything below a threshold with a lookahead noise gate, so the start of words is not cut off.
+	 * @param t Track used for modification
+	 * @param thresholdDb Level below which the gate closes in dB full scale
+	 * @return New modified Track object
+	 */
+	public static Track gate(Track t, double thresholdDb) {
+		return Metrics.time("gate", samples(t), () -> {
+			AudioFormat f = t.getFormat();
+			return process(t, Dynamics.gate(f.getSampleRate(), f.getChannels(), thresholdDb), 0);
+		});
+	}
+
+	/**
+	 * Cuts out all silent parts longer than minCutDuration, keeping a short padding around every cut.
 	 * @param t Track used for modification
-	 * @param threshold Threshold value in percent
+	 * @param threshold Threshold value in percent of full scale (RMS)
 	 * @param minCutDuration Minimal duration for part to be cut out
 	 * @return New modified Track object
 	 */
 	public static Track autoCut(Track t, int threshold, float minCutDuration) {
-		return WaveEffect.autoCut(Wave.createWave(t), minCutDuration, threshold)
-				.toTrack(t.getName(), t.getFormat());
+		return autoCut(t, threshold, minCutDuration, AUTOCUT_PADDING);
+	}
+
+	/**
+	 * Cuts out silent parts using the SilenceDetector (sliding window RMS with hysteresis).
+	 * The Track is decoded block by block in one pass, afterwards the remaining parts are copied
+	 * into a single output array.
+	 * @param t Track used for modification
+	 * @param threshold Threshold value in percent of full scale (RMS)
+	 * @param minCutDuration Minimal duration for part to be cut out in seconds
+	 * @param padding Seconds kept before and after every cut
+	 * @return New modified Track object
+	 */
+	public static Track autoCut(Track t, int threshold, float minCutDuration, float padding) {
+		return Metrics.time("autoCut", samples(t), () -> {
+			final int blockFrames = 8192;
+			SampleCodec codec = SampleCodec.forFormat(t.getFormat());
+			int frameSize = codec.getFrameSize();
+			float rate = t.getFormat().getSampleRate();
+			SilenceDetector detector = new SilenceDetector(threshold / 100.0, (int)(AUTOCUT_WINDOW * rate),
+					(int)(minCutDuration * rate), (int)(padding * rate));
+			byte[] bytes = new byte[blockFrames * frameSize];
+			float[][] block = new float[codec.getChannels()][blockFrames];
+			long pos = 0;
+			int read;
+			while((read = t.read(pos, bytes, 0, bytes.length)) > 0) {
+				int frames = read / frameSize;
+				codec.decode(bytes, 0, block, 0, frames);
+				detector.process(block, 0, frames);
+				pos += read;
+			}
+
+			long[] cuts = detector.finish();
+			Track.Builder result = builder(t);
+			long src = 0;
+			for(int i = 0; i <= cuts.length; i += 2) {
+				long end = i < cuts.length ? cuts[i] * frameSize : t.getSize();
+				result.write(t, src, end - src);
+				src = i < cuts.length ? cuts[i + 1] * frameSize : end;
+			}
+			return result.build(true);
+		});
+	}
+
+	/**
+	 * Convolves a Track with an impulse response (FIR filter, room or reverb response) using the Convolver class.
+	 * The impulse response is normalized, so no frequency gets louder. The result is longer by the length of the response.
+	 * @param t Track used for modification
+	 * @param ir Track containing the impulse response (one channel or the same channels as t)
+	 * @param wetPercentage Share of the convolved signal in percent
+	 * @return New modified Track object
+	 */
+	public static Track convolve(Track t, Track ir, int wetPercentage) {
+		return Metrics.time("convolve", samples(t), () -> {
+			float[][] response = impulseResponse(ir);
+			int irFrames = response[0].length;
+			Convolver c = new Convolver(response, t.getFormat().getChannels(), Convolver.offlineBlockSize(irFrames), wetPercentage);
+			return process(t, c, irFrames - 1);
+		});
+	}
+
+	/**
+	 * Reads a Track as impulse response for the Convolver, normalized so no frequency gets louder.
+	 * @param ir Track containing the impulse response
+	 * @return Samples per channel
+	 */
+	public static float[][] impulseResponse(Track ir) {
+		SampleCodec codec = SampleCodec.forFormat(ir.getFormat());
+		int irFrames = (int)Math.min(Integer.MAX_VALUE - 8, ir.getFrames());
+		float[][] response = new float[codec.getChannels()][irFrames];
+		codec.decode(ir.getData(), 0, response, 0, irFrames);
+		Convolver.normalize(response);
+		return response;
+	}
+
+	/**
+	 * Runs a BlockProcessor over the whole Track in blocks. The latency of the processor is compensated.
+	 * @param t Track used for modification
+	 * @param p BlockProcessor (is reset before processing)
+	 * @param tailFrames Number of frames appended to the result (e.g. reverb tail)
+	 * @return New modified Track object
+	 */
+	public static Track process(Track t, BlockProcessor p, int tailFrames) {
+		final int blockFrames = 4096;
+		SampleCodec codec = SampleCodec.forFormat(t.getFormat());
+		int channels = codec.getChannels();
+		int frameSize = codec.getFrameSize();
+		long frames = t.getFrames();
+		long outFrames = frames + tailFrames;
+		Track.Builder result = builder(t);
+		byte[] bytes = new byte[blockFrames * frameSize];
+		float[][] block = new float[channels][blockFrames];
+
+		p.reset();
+		long inPos = 0;	//Frames passed to the processor
+		long outPos = -p.getLatency();	//Frame index of the first output frame of the next block
+		while(outPos < outFrames) {
+			int n = (int)Math.max(0, Math.min(blockFrames, frames - inPos));
+			t.read(inPos * frameSize, bytes, 0, n * frameSize);
+			codec.decode(bytes, 0, block, 0, n);
+			for(float[] c : block) {
+				Arrays.fill(c, n, blockFrames, 0);	//Silence after the end of the Track
+			}
+			p.process(block, 0, blockFrames);
+			inPos += n;
+
+			int skip = (int)Math.max(0, Math.min(blockFrames, -outPos));	//Output before frame 0 is latency
+			int count = (int)Math.min(blockFrames, outFrames - outPos) - skip;
+			if(count > 0) {
+				codec.encode(block, skip, bytes, 0, count);
+				result.write(bytes, 0, count * frameSize);
+			}
+			outPos += blockFrames;
+		}
+		return result.build(true);
+	}
+
+	/**
+	 * Converts a Track to another audio format (sample rate, channel count and sample layout).
+	 * The sample rate is changed by the polyphase Resampler, channels are mixed down or copied,
+	 * the samples are decoded and encoded by the SampleCodec of each format.
+	 * Float data or data with more bits is dithered before it is quantized to the target format.
+	 * @param t Track used for modification
+	 * @param target Wanted audio format
+	 * @return New modified Track object, t itself if it already has the wanted format
+	 */
+	public static Track convert(Track t, AudioFormat target) {
+		AudioFormat f = t.getFormat();
+		boolean resample = f.getSampleRate() != target.getSampleRate();
+		if(!resample && f.matches(target)) {
+			return t;
+		}
+		return Metrics.time("convert", samples(t), () -> {
+			final int blockFrames = 4096;
+			int inChannels = f.getChannels();
+			int outChannels = target.getChannels();
+			long frames = t.getFrames();
+			Resampler r = resample ? new Resampler((int)f.getSampleRate(), (int)target.getSampleRate(), outChannels) : null;
+			long outFrames = r == null ? frames : r.outputLength(frames);
+			SampleCodec decoder = SampleCodec.forFormat(f);
+			SampleCodec encoder = SampleCodec.forFormat(target);
+			Track.Builder result = new Track.Builder(t.getName(), target);
+			Dither dither = !SampleCodec.isFloat(target) && (SampleCodec.isFloat(f)
+					|| f.getSampleSizeInBits() > target.getSampleSizeInBits()) ? new Dither(target.getSampleSizeInBits()) : null;
+
+			byte[] bytes = new byte[blockFrames * f.getFrameSize()];
+			float[][] in = new float[inChannels][blockFrames];
+			float[][] mixed = new float[outChannels][blockFrames];
+			float[][] out = r == null ? mixed : new float[outChannels][r.maxOutput(blockFrames) + r.maxOutput(0)];
+			byte[] encoded = new byte[out[0].length * encoder.getFrameSize()];
+			for(long pos = 0; pos < frames; pos += blockFrames) {
+				int n = (int)Math.min(blockFrames, frames - pos);
+				t.read(pos * f.getFrameSize(), bytes, 0, n * f.getFrameSize());
+				decoder.decode(bytes, 0, in, 0, n);
+				remix(in, mixed, n);
+				int produced = r == null ? n : r.process(mixed, 0, n, out, 0);
+				if(dither != null) {
+					dither.process(out, 0, produced);
+				}
+				produced = (int)Math.min(produced, outFrames - result.size() / encoder.getFrameSize());
+				encoder.encode(out, 0, encoded, 0, produced);
+				result.write(encoded, 0, produced * encoder.getFrameSize());
+			}
+			if(r != null) {
+				int produced = r.flush(out, 0);
+				if(dither != null) {
+					dither.process(out, 0, produced);
+				}
+				produced = (int)Math.min(produced, outFrames - result.size() / encoder.getFrameSize());
+				encoder.encode(out, 0, encoded, 0, produced);
+				result.write(encoded, 0, produced * encoder.getFrameSize());
+			}
+			return result.build(true);
+		});
+	}
+
+	/**
+	 * Converts a Track to the 32 bit float working format (see SampleCodec.floatFormat).
+	 * Later operations on the result are neither clamped nor requantized until it is saved or played.
+	 * @param t Track used for modification
+	 * @return New Track object in float format, t itself if it already is
+	 */
+	public static Track toFloat(Track t) {
+		return convert(t, SampleCodec.floatFormat(t.getFormat()));
+	}
+
+	/**
+	 * Assisting function copying samples to another number of channels.
+	 * Mono output is the mean of all channels, otherwise output channel c is input channel c (modulo the input channels).
+	 * @param in Samples per input channel
+	 * @param out Samples per output channel
+	 * @param frames Number of frames
+	 */
+	private static void remix(float[][] in, float[][] out, int frames) {
+		if(out.length == 1 && in.length > 1) {
+			for(int i = 0; i < frames; i++) {
+				float sum = 0;
+				for(float[] c : in) {
+					sum += c[i];
+				}
+				out[0][i] = sum / in.length;
+			}
+		} else {
+			for(int c = 0; c < out.length; c++) {
+				System.arraycopy(in[c % in.length], 0, out[c], 0, frames);
+			}
+		}
+	}
+
+	/**
+	 * Converts all Tracks of a list to the sample rate and channels of the first one.
+	 * @param l List of Tracks
+	 * @return New list with Tracks in a common format
+	 */
+	private static List<Track> convertAll(List<Track> l) {
+		List<Track> converted = new ArrayList<>(l.size());
+		for(Track t : l) {
+			converted.add(convert(t, l.get(0).getFormat()));
+		}
+		return converted;
 	}
 
 	/**
 	 * Concatenate the data arrays from different Track objects.
+	 * Tracks with another sample rate or channel count are converted to the format of the first Track.
 	 * @param l List of Tracks in correct order
 	 * @return New modified Track object
 	 */
 	public static Track concat(List<Track> l) {
-		ByteArrayOutputStream bStream = new ByteArrayOutputStream();
-		for(Track t : l) {
-			try {
-				bStream.write(t.getData());
-			} catch (IOException e) {
-				e.printStackTrace();
+		return concat(l, 0);
+	}
+
+	/**
+	 * Concatenate Tracks with an equal-power crossfade at every join (cosine/sine gains, constant loudness).
+	 * The result is streamed into a Track.Builder, so no array of the whole result is ever allocated
+	 * and chunk aligned parts are shared with the original Tracks. Only the overlapping frames of a join are decoded and mixed.
+	 * Tracks with another sample rate or channel count are converted to the format of the first Track.
+	 * @param l List of Tracks in correct order
+	 * @param crossfade Length of each crossfade in seconds (0 for hard joins, limited by the Track lengths)
+	 * @return New modified Track object
+	 */
+	public static Track concat(List<Track> l, float crossfade) {
+		return Metrics.time("concat", samples(l), () -> {
+			List<Track> tracks = convertAll(l);
+			SampleCodec codec = SampleCodec.forFormat(tracks.get(0).getFormat());
+			int frameSize = codec.getFrameSize();
+			long[] overlaps = new long[tracks.size() + 1];	//Frames shared with the previous Track
+			for(int i = 1; i < tracks.size(); i++) {
+				long previous = tracks.get(i - 1).getFrames() - overlaps[i - 1];
+				overlaps[i] = Math.min(calcFrame(tracks.get(i), crossfade), Math.min(previous, tracks.get(i).getFrames()));
 			}
+
+			Track.Builder result = builder(l.get(0));
+			for(int i = 0; i < tracks.size(); i++) {
+				Track t = tracks.get(i);
+				if(overlaps[i] > 0) {
+					Track previous = tracks.get(i - 1);
+					crossfade(codec, previous, previous.getFrames() - overlaps[i], t, overlaps[i], result);
+				}
+				long body = t.getFrames() - overlaps[i] - overlaps[i + 1];
+				result.write(t, overlaps[i] * frameSize, body * frameSize);
+			}
+			return result.build(true);
+		});
+	}
+
+	/**
+	 * Assisting function mixing the end of a Track with the start of the next one.
+	 * @param codec Codec of the common format
+	 * @param a Previous Track (faded out)
+	 * @param start First frame of the overlap in a
+	 * @param b Next Track (faded in from its first frame)
+	 * @param frames Length of the overlap in frames
+	 * @param result Builder the mixed frames are appended to
+	 */
+	private static void crossfade(SampleCodec codec, Track a, long start, Track b, long frames, Track.Builder result) {
+		final int blockFrames = 4096;
+		int frameSize = codec.getFrameSize();
+		float[][] out = new float[codec.getChannels()][blockFrames];
+		float[][] in = new float[codec.getChannels()][blockFrames];
+		byte[] bytes = new byte[blockFrames * frameSize];
+		for(long f = 0; f < frames; f += blockFrames) {
+			int n = (int)Math.min(blockFrames, frames - f);
+			a.read((start + f) * frameSize, bytes, 0, n * frameSize);
+			codec.decode(bytes, 0, out, 0, n);
+			b.read(f * frameSize, bytes, 0, n * frameSize);
+			codec.decode(bytes, 0, in, 0, n);
+			for(int i = 0; i < n; i++) {
+				double angle = Math.PI / 2 * (f + i + 0.5) / frames;
+				float fadeOut = (float)Math.cos(angle);
+				float fadeIn = (float)Math.sin(angle);
+				for(int c = 0; c < out.length; c++) {
+					out[c][i] = out[c][i] * fadeOut + in[c][i] * fadeIn;
+				}
+			}
+			codec.encode(out, 0, bytes, 0, n);
+			result.write(bytes, 0, n * frameSize);
 		}
-		return new Track(l.get(0), bStream.toByteArray());
+	}
+
+	/**
+	 * Shifts a Track so it lines up with a reference recording of the same material.
+	 * The lag is found by FFT cross-correlation (see Aligner). A late Track loses its first frames,
+	 * an early Track gets silence in front.
+	 * @param reference Track used as reference
+	 * @param t Track used for modification
+	 * @return New modified Track object
+	 */
+	public static Track align(Track reference, Track t) {
+		return Metrics.time("align", samples(reference) + samples(t), () -> {
+			int frameSize = t.getFormat().getFrameSize();
+			long lag = Aligner.lag(reference, t);
+			long shift = Math.max(-t.getSize(), -lag * frameSize);	//Bytes to add (positive) or remove (negative) at the start
+			return builder(t)
+					.writeSilence(Math.max(0, shift))
+					.write(t, Math.max(0, -shift), t.getSize())
+					.build(true);
+		});
+	}
+
+	/**
+	 * Aligns all Tracks of a list to the first one.
+	 * @param l List of Tracks
+	 * @return New list, the first Track is unchanged
+	 */
+	private static List<Track> alignAll(List<Track> l) {
+		List<Track> aligned = new ArrayList<>(l.size());
+		for(Track t : l) {
+			aligned.add(aligned.isEmpty() ? t : align(l.get(0), t));
+		}
+		return aligned;
+	}
+
+	/**
+	 * Add sample values from a list of Tracks, optionally aligning them to the first Track before.
+	 * The Tracks are converted to the format of the first one before aligning, so lags are measured in its frames.
+	 * @param l List of Tracks (order does not matter without alignment)
+	 * @param align True to align all Tracks to the first one
+	 * @return New modified Track object
+	 */
+	public static Track add(List<Track> l, boolean align) {
+		return add(align ? alignAll(convertAll(l)) : l);
+	}
+
+	/**
+	 * Subtract sample values, optionally aligning the Tracks before (phase cancellation check of two takes).
+	 * The Tracks are converted to the format of the first one before aligning, so lags are measured in its frames.
+	 * @param l List of Tracks
+	 * @param align True to align all Tracks to the first one
+	 * @return New modified Track object
+	 */
+	public static Track subtract(List<Track> l, boolean align) {
+		return subtract(align ? alignAll(convertAll(l)) : l);
 	}
 
 	/**
 	 * Add sample values from a list of Tracks using the add function from the WaveEffect class.
+	 * Tracks with another sample rate or channel count are converted to the format of the first Track.
+	 * Float, 24 and 32 bit Tracks are summed in the SampleBuffer, so they keep their resolution (float is not clamped).
 	 * @param l List of Tracks (order does not matter)
 	 * @return New modified Track object
 	 */
 	public static Track add(List<Track> l) {
-	    Iterator<Track> it = l.iterator();
+		return Metrics.time("add", samples(l), () -> {
+			List<Track> converted = convertAll(l);
+			if(!inWave(converted)) {
+				return mix(converted, 1);
+			}
+			Iterator<Track> it = converted.iterator();
 
-        Track first = it.next();
-        String name = first.getName();
-        AudioFormat format = first.getFormat();
-        Wave wave = Wave.createWave(first);
-        Track t;
+			Track first = it.next();
+			String name = first.getName();
+			AudioFormat format = first.getFormat();
+			Wave wave = Wave.createWave(first);
+			Track t;
 
-        while(it.hasNext()) {
-            t = it.next();
-            wave = WaveEffect.add(wave, Wave.createWave(t));
-        }
+			while(it.hasNext()) {
+				t = it.next();
+				wave = WaveEffect.add(wave, Wave.createWave(t));
+			}
 
-		return wave.toTrack(name, format);
+			return wave.toTrack(name, format);
+		});
 	}
 
 	/**
 	 * Subtract sample values of the Second list element from the first list element using the subtract function from the WaveEffect class.
+	 * Tracks with another sample rate or channel count are converted to the format of the first Track.
+	 * Float, 24 and 32 bit Tracks are subtracted in the SampleBuffer, so they keep their resolution (float is not clamped).
 	 * @param l List of Tracks (order does not matter)
 	 * @return New modified Track object
 	 */
 	public static Track subtract(List<Track> l) {
-        Iterator<Track> it = l.iterator();
+		return Metrics.time("subtract", samples(l), () -> {
+			List<Track> converted = convertAll(l);
+			if(!inWave(converted)) {
+				return mix(converted, -1);
+			}
+			Iterator<Track> it = converted.iterator();
 
-        Track first = it.next();
-        String name = first.getName();
-        AudioFormat format = first.getFormat();
-        Wave wave = Wave.createWave(first);
-        Track t;
+			Track first = it.next();
+			String name = first.getName();
+			AudioFormat format = first.getFormat();
+			Wave wave = Wave.createWave(first);
+			Track t;
 
-        while(it.hasNext()) {
-            t = it.next();
-            wave = WaveEffect.subtract(wave, Wave.createWave(t));
-        }
+			while(it.hasNext()) {
+				t = it.next();
+				wave = WaveEffect.subtract(wave, Wave.createWave(t));
+			}
+
+			return wave.toTrack(name, format);
+		});
+	}
 
-        return wave.toTrack(name, format);
+	/**
+	 * Assisting function mixing Tracks in the planar SampleBuffer, float Tracks are not clamped.
+	 * @param l List of Tracks in the same format
+	 * @param gain Factor for all Tracks after the first one (-1 subtracts)
+	 * @return New modified Track object
+	 */
+	private static Track mix(List<Track> l, double gain) {
+		SampleBuffer sum = SampleBuffer.of(l.get(0));
+		for(int i = 1; i < l.size(); i++) {
+			sum = sum.add(SampleBuffer.of(l.get(i)), gain);
+		}
+		return sum.toTrack(l.get(0).getName(), l.get(0).getFormat());
 	}
 
 	/**
-	 * Assisting function calculating an absolute position in a byte array.
+	 * Assisting function counting the samples of a Track for the Metrics.
+	 * @param t Track object
+	 * @return Number of samples (all channels)
+	 */
+	static long samples(Track t) {
+		return t == null ? 0 : t.getSize() / Math.max(1, t.getFormat().getSampleSizeInBits() / 8);
+	}
+
+	/**
+	 * Assisting function counting the samples of multiple Tracks for the Metrics.
+	 * @param l List of Tracks
+	 * @return Number of samples of all Tracks
+	 */
+	static long samples(List<Track> l) {
+		long samples = 0;
+		for(Track t : l) {
+			samples += samples(t);
+		}
+		return samples;
+	}
+
+	/**
+	 * Assisting function calculating an absolute position in the audio data.
+	 * The position is always the start of a frame, so a cut never splits a sample.
 	 * @param t	Track object 
 	 * @param seconds Position in the Track in seconds
-	 * @return Absolute array position
+	 * @return Absolute byte position (64 bit, Tracks can be longer than 2 GB)
 	 */
-	public static int calcPosition(Track t, float seconds) {
+	public static long calcPosition(Track t, double seconds) {
 		if(t == null) {
 			return 0;
-		}   //Conversion from seconds to array position
-		int sampleRate = (int)t.getFormat().getSampleRate();
-		int sampleSizeInBits = t.getFormat().getSampleSizeInBits();
-		int channels = t.getFormat().getChannels();
-		int bytesPerSecond = (sampleRate * sampleSizeInBits * channels) / 8;
-		return (int)(bytesPerSecond * seconds);
+		}   //Conversion from seconds to a frame index, then to a byte position
+		return calcFrame(t, seconds) * t.getFormat().getFrameSize();
+	}
+
+	/**
+	 * Assisting function calculating a frame index from seconds.
+	 * @param t Track object
+	 * @param seconds Time in seconds (not limited to the length of the Track)
+	 * @return Frame index
+	 */
+	public static long calcFrame(Track t, double seconds) {
+		return Math.max(0, (long)(seconds * t.getFormat().getFrameRate()));
+	}
+
+	/**
+	 * Moves a time to the closest transient and/or zero crossing, so cuts and fades start at a natural point
+	 * and do not click. The transient index is built once per Track, every lookup is a binary search.
+	 * @param t Track object
+	 * @param seconds Time in seconds
+	 * @param transients True to snap to the closest transient within SNAP_RANGE
+	 * @param zeroCrossings True to snap to the closest zero crossing within ZERO_RANGE
+	 * @return Snapped time in seconds, a double is exact to the frame on Tracks of any length (a float is not after a few minutes)
+	 */
+	public static double snap(Track t, double seconds, boolean transients, boolean zeroCrossings) {
+		if(t == null || (!transients && !zeroCrossings)) {
+			return seconds;
+		}
+		double rate = t.getFormat().getFrameRate();
+		long frame = t.frameAt(seconds);
+		if(transients) {
+			frame = t.getOnsets().nearest(frame, calcFrame(t, SNAP_RANGE));
+		}
+		if(zeroCrossings) {
+			frame = Onsets.zeroCrossing(t, frame, (int)calcFrame(t, ZERO_RANGE));
+		}
+		return (frame + 0.5) / rate;	//Half a frame, so frameAt rounds down to the same frame
+	}
+
+	/**
+	 * Assisting function checking if a Track can be processed by the Wave class:
+	 * integer samples with at most 16 bit (Wave requantizes to 16 bit, 24 and 32 bit would be truncated)
+	 * and short enough for a single array.
+	 * @param t Track object
+	 * @return True if the WaveEffect functions can be used
+	 */
+	private static boolean inWave(Track t) {
+		AudioFormat f = t.getFormat();
+		return !SampleCodec.isFloat(f) && f.getSampleSizeInBits() <= 16 && t.getSize() <= MAX_WAVE_BYTES;
+	}
+
+	/**
+	 * Assisting function checking if all Tracks of a list can be processed by the Wave class.
+	 * @param l List of Tracks
+	 * @return True if the WaveEffect functions can be used for every Track
+	 */
+	private static boolean inWave(List<Track> l) {
+		for(Track t : l) {
+			if(!inWave(t)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Assisting function creating a Builder for a modified version of a Track.
+	 * @param t Unmodified Track
+	 * @return Builder with the name and format of t
+	 */
+	private static Track.Builder builder(Track t) {
+		return new Track.Builder(t.getName(), t.getFormat());
 	}
 }
@@ -0,0 +1,162 @@
+package mod;
+
+import java.util.Arrays;
+
+/**
+ * Index of the frames of an MPEG audio file (.mp3), found by parsing the 4 byte frame headers.
+ * Every frame decodes to the same number of samples, so the index maps a frame number to a byte offset
+ * and to a sample position. The Converter uses it to split a file at frame boundaries and decode the parts in parallel.
+ * A header only counts if the next frame starts with a matching header, so sync words inside audio data are skipped.
+ * @author Tobias Haider
+ */
+public class Mp3Index {
+
+	private static final int[][] BITRATES = {	//kbit/s by [MPEG 1 layer I, II, III, MPEG 2 layer I, II/III][index]
+			{0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+			{0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+			{0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+			{0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+			{0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}};
+	private static final int[] SAMPLE_RATES = {44100, 48000, 32000};	//MPEG 1, halved for MPEG 2, quartered for MPEG 2.5
+
+	private final int[] offsets;	//Byte offset of every frame, plus the end of the last frame
+	private final int frames;	//Number of frames
+	private final int samplesPerFrame;	//Samples per channel of every frame
+	private final int sampleRate;	//in Hz
+
+	private Mp3Index(int[] offsets, int frames, int samplesPerFrame, int sampleRate) {
+		this.offsets = offsets;
+		this.frames = frames;
+		this.samplesPerFrame = samplesPerFrame;
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Indexes all frames of a file. Tags (ID3v2 at the start, ID3v1 or anything else between frames) are skipped.
+	 * @param data Content of the file
+	 * @return Index of the frames (empty if no frame was found)
+	 */
+	public static Mp3Index of(byte[] data) {
+		int pos = 0;
+		if(data.length >= 10 && data[0] == 'I' && data[1] == 'D' && data[2] == '3') {	//ID3v2 tag, syncsafe size
+			int size = (data[6] & 0x7F) << 21 | (data[7] & 0x7F) << 14 | (data[8] & 0x7F) << 7 | (data[9] & 0x7F);
+			pos = 10 + size + ((data[5] & 0x10) != 0 ? 10 : 0);
+		}
+		int[] offsets = new int[1024];
+		int frames = 0;
+		int first = -1;	//Header bits which have to be the same in every frame (version, layer, sample rate)
+		while(pos + 4 <= data.length) {
+			int header = header(data, pos);
+			int length = frameLength(header);
+			boolean valid = length > 0 && (first < 0 ? confirmed(data, pos, header, length) : (header & 0xFFFE0C00) == first);
+			if(!valid) {
+				pos++;	//Search the next sync word
+				continue;
+			}
+			if(pos + length > data.length) {	//Truncated last frame
+				break;
+			}
+			if(first < 0) {
+				first = header & 0xFFFE0C00;
+			}
+			if(frames + 1 >= offsets.length) {
+				offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+			}
+			offsets[frames++] = pos;
+			pos += length;
+			offsets[frames] = pos;
+		}
+		if(frames == 0) {
+			return new Mp3Index(new int[] {0}, 0, 0, 0);
+		}
+		int header = header(data, offsets[0]);
+		return new Mp3Index(offsets, frames, samplesPerFrame(header), sampleRate(header));
+	}
+
+	/**
+	 * @param data File content
+	 * @param pos Position of the header
+	 * @return Header as big endian int
+	 */
+	private static int header(byte[] data, int pos) {
+		return (data[pos] & 0xFF) << 24 | (data[pos + 1] & 0xFF) << 16 | (data[pos + 2] & 0xFF) << 8 | (data[pos + 3] & 0xFF);
+	}
+
+	/**
+	 * Checks the first frame: the following frame needs a header with the same version, layer and sample rate
+	 * (or the frame ends at the end of the file).
+	 */
+	private static boolean confirmed(byte[] data, int pos, int header, int length) {
+		int next = pos + length;
+		if(next + 4 > data.length) {
+			return next == data.length;
+		}
+		int h = header(data, next);
+		return frameLength(h) > 0 && (h & 0xFFFE0C00) == (header & 0xFFFE0C00);
+	}
+
+	/**
+	 * @param header Frame header
+	 * @return Length of the frame in bytes, 0 if the header is invalid (or uses free format)
+	 */
+	static int frameLength(int header) {
+		if((header & 0xFFE00000) != 0xFFE00000) {	//11 bit sync word
+			return 0;
+		}
+		int version = header >>> 19 & 3;	//0 = MPEG 2.5, 1 = reserved, 2 = MPEG 2, 3 = MPEG 1
+		int layer = 4 - (header >>> 17 & 3);	//1, 2 or 3 (4 = reserved)
+		int bitrateIndex = header >>> 12 & 15;
+		int rateIndex = header >>> 10 & 3;
+		if(version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3) {
+			return 0;
+		}
+		int table = version == 3 ? layer - 1 : (layer == 1 ? 3 : 4);
+		int bitrate = BITRATES[table][bitrateIndex] * 1000;
+		int rate = sampleRate(header);
+		int padding = header >>> 9 & 1;
+		if(layer == 1) {
+			return (12 * bitrate / rate + padding) * 4;
+		}
+		return samplesPerFrame(header) / 8 * bitrate / rate + padding;
+	}
+
+	private static int sampleRate(int header) {
+		int version = header >>> 19 & 3;
+		return SAMPLE_RATES[header >>> 10 & 3] >> (version == 3 ? 0 : version == 2 ? 1 : 2);
+	}
+
+	private static int samplesPerFrame(int header) {
+		int version = header >>> 19 & 3;
+		int layer = 4 - (header >>> 17 & 3);
+		return layer == 1 ? 384 : layer == 3 && version != 3 ? 576 : 1152;
+	}
+
+	/**
+	 * @return Number of frames
+	 */
+	public int getFrames() {
+		return frames;
+	}
+
+	/**
+	 * @param frame Frame number (getFrames for the end of the last frame)
+	 * @return Byte offset of the frame in the file
+	 */
+	public int getOffset(int frame) {
+		return offsets[frame];
+	}
+
+	/**
+	 * @return Samples per channel of every frame
+	 */
+	public int getSamplesPerFrame() {
+		return samplesPerFrame;
+	}
+
+	/**
+	 * @return Sample rate in Hz
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+}
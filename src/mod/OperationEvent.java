@@ -0,0 +1,30 @@
+package mod;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder event for a single operation (Modifier function, load, save, waveform rebuild, ...).
+ * Duration and thread are recorded by JFR itself.
+ * Events are created and committed by Metrics.start and Metrics.Timer.close.
+ * @author Tobias Haider
+ */
+@Name("cutplay.Operation")
+@Label("Operation")
+@Category("cut&play")
+@Description("Audio operation with the number of processed samples and the allocated bytes")
+class OperationEvent extends jdk.jfr.Event {
+
+	@Label("Operation")
+	String operation;
+
+	@Label("Samples")
+	long samples;
+
+	@Label("Allocated")
+	@DataAmount
+	long allocated;
+}
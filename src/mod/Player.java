@@ -1,28 +1,46 @@
 package mod;
 
-import java.io.ByteArrayInputStream;
-import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
 import javax.sound.sampled.SourceDataLine;
 
+import wave.BlockProcessor;
+import wave.Dither;
+import wave.SampleCodec;
+
 /**
  * Media player class which can play audio files (represented by track objects)
  * The value track in this class represents the currently selected value.
+ * Audio data is read through an AudioSource, so a GrowingBuffer can be played while it is still being decoded.
+ * The player is used by the event dispatch thread and its playback thread. All shared fields are volatile,
+ * state changes are synchronized: every play starts a new session and a playback thread only changes the state
+ * while its session is the current one, so an old thread which has not noticed a stop can not overwrite a newer state.
  * @author Tobias Haider
  */
 public class Player {
-	private Track track;	//Currently selected Audio file
-	private boolean playing;	//status
-	private int position;		//Current position in byte[]
-	private long playingTime;	//Current position in milliseconds
+
+	/**
+	 * States of the player: STOPPED -> STARTING (play) -> PLAYING (line opened) -> STOPPED (stop or end of data).
+	 */
+	public enum State {STOPPED, STARTING, PLAYING}
+
+	private volatile Track track;	//Currently selected Audio file
+	private volatile AudioSource source;	//Data which is played, the Track or a GrowingBuffer
+	private volatile State state;	//status, only changed while holding the lock
+	private volatile long session;	//Incremented by every play and stop, a playback thread runs while its session is current
+	private volatile long position;		//Current position in bytes (always the start of a frame)
+	private volatile long playingTime;	//Current position in milliseconds
+	private volatile BlockProcessor processor;	//Effect applied during playback, null for none
+	private Thread playback;	//Thread of the latest session, guarded by the lock
 	
 	/**
 	 * Constructor initializing all variables with standard values.
 	 */
 	public Player() {
 		track = null;
-		playing = false;
+		source = null;
+		state = State.STOPPED;
 		position = 0;
 	}
 	
@@ -33,6 +51,26 @@ public class Player {
 	public void setTrack(Track track) {
 		stop();
 		this.track = track;
+		this.source = track;
+	}
+
+	/**
+	 * Stops the player and sets a buffer which is still being decoded.
+	 * Playback only waits if it catches up with the decoder. getTrack returns null until a Track is set.
+	 * @param buffer Buffer filled by a decoder
+	 */
+	public void setSource(GrowingBuffer buffer) {
+		stop();
+		this.track = null;
+		this.source = buffer;
+		position = 0;
+	}
+
+	/**
+	 * @return Data which is played (the current Track or a GrowingBuffer)
+	 */
+	public AudioSource getSource() {
+		return source;
 	}
 	
 	/**
@@ -46,14 +84,35 @@ public class Player {
 	 * Sets the start position to a custom value.
 	 * @param seconds Start position in seconds
 	 */
-	public void setPosition(float seconds) {
-		position = Modifier.calcPosition(track, seconds);
+	public void setPosition(double seconds) {
+		if(source == null) {
+			position = 0;
+			return;
+		}
+		AudioFormat f = source.getFormat();
+		position = Math.max(0, (long)(seconds * f.getFrameRate())) * f.getFrameSize();	//Positions beyond the end restart at 0
+	}
+	
+	/**
+	 * Sets an effect which is applied to the audio data while playing (e.g. a Convolver).
+	 * The Track itself is not modified.
+	 * @param processor BlockProcessor, null to play the unmodified data
+	 */
+	public void setProcessor(BlockProcessor processor) {
+		this.processor = processor;
 	}
 	
 	/**
-	 * @return Current absolute position
+	 * @return Effect applied during playback, null for none
 	 */
-	public int getPosition() {
+	public BlockProcessor getProcessor() {
+		return processor;
+	}
+	
+	/**
+	 * @return Current absolute position in bytes
+	 */
+	public long getPosition() {
 		return position;
 	}
 	
@@ -65,80 +124,145 @@ public class Player {
 	}
 	
 	/**
-	 * @return Playing status
+	 * @return Playing status (also true while the line is being opened)
 	 */
 	public boolean isPlaying() {
-		return playing;
+		return state != State.STOPPED;
+	}
+
+	/**
+	 * @return Current state
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Changes the state for a playback thread.
+	 * @param s Session of the playback thread
+	 * @param next New state
+	 * @return False if the session is not current anymore, the state is not changed then
+	 */
+	private synchronized boolean transition(long s, State next) {
+		if(s != session) {
+			return false;
+		}
+		state = next;
+		return true;
 	}
 	
 	/**
 	 * Starts a new Thread and plays the audio Data using the DataLine from the AudioSystem.
-	 * Cuts byte[] if the start position is not 0.
+	 * The data is read chunk by chunk starting at the current position, so no copy of the Track is made.
 	 */
 	public void play() {	//Play function in new thread
-		if(track == null) {	
+		final Thread thread;
+		synchronized(this) {
+			final AudioSource source = this.source;
+			if(source == null || state != State.STOPPED) {
+				return;
+			}
+			final long s = ++session;
+			final Thread previous = playback;
+			state = State.STARTING;
+			thread = playback = new Thread(() -> playback(source, s, previous), "player");
+		}
+		thread.start();
+	}
+
+	/**
+	 * Playback thread of one session.
+	 * @param source Data which is played
+	 * @param s Session of this thread
+	 * @param previous Playback thread of the previous session (null if there was none), it is finished before this one starts
+	 */
+	private void playback(AudioSource source, long s, Thread previous) {
+		long readPos = position <= source.getSize() || !(source instanceof Track) ? position : 0;	//Read directly from the shared chunks
+		boolean started = false;	//Underruns can only happen after the first write
+		final BlockProcessor effect = processor;	//Shared by all sessions, the previous thread has ended
+		final AudioFormat format = source.getFormat();
+		final boolean floating = SampleCodec.isFloat(format);	//Float Tracks are dithered to 16 bit for the line
+		final AudioFormat lineFormat = floating ? new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false) : format;
+		final SampleCodec codec = SampleCodec.forFormat(format);
+		final SampleCodec lineCodec = SampleCodec.forFormat(lineFormat);
+		final BlockProcessor dither = floating ? new Dither(16) : null;
+		final int frameSize = format.getFrameSize();
+		float[][] block = new float[format.getChannels()][1024 / frameSize];
+		if(previous != null) {	//Hand off: the old thread may still be inside effect.process or hold the line
+			previous.interrupt();	//Stops waiting for a decoder
+			try {
+				previous.join();
+			} catch (InterruptedException e) {
+				transition(s, Player.State.STOPPED);
+				return;
+			}
+		}
+		if(effect != null) {
+			effect.reset();
+		}
+		byte[] buffer = new byte[1024 / frameSize * frameSize];	//Whole frames only
+		byte[] lineBuffer = floating ? new byte[block[0].length * lineCodec.getFrameSize()] : buffer;
+		int size = 0;	//sourceLine, buffers for output
+		DataLine.Info info = new DataLine.Info(SourceDataLine.class, lineFormat);
+		SourceDataLine sourceLine;
+		try {
+			sourceLine = (SourceDataLine)AudioSystem.getLine(info);
+			sourceLine.open(); 
+		} catch (Exception e) {
+			e.printStackTrace();
+			transition(s, Player.State.STOPPED);
 			return;
 		}
-		new Thread() {
-			public void run() {
-				byte[] playBytes = cutPlayBytes(track.getData(), position);	//Cut away data if start is not 0
-				ByteArrayInputStream stream = new ByteArrayInputStream(playBytes);
-				byte[] buffer = new byte[1024];
-				int size = 0;	//sourceLine, buffers for output
-				DataLine.Info info = new DataLine.Info(SourceDataLine.class, track.getFormat());
-				SourceDataLine sourceLine;
-				try {
-					sourceLine = (SourceDataLine)AudioSystem.getLine(info);
-					sourceLine.open(); 
-				} catch (Exception e) {
-					e.printStackTrace();
-					return;
-				}
-				
-				sourceLine.start(); 
-				playing = true;
-				final long start = java.lang.System.currentTimeMillis();
-				while(playing) {	//Reading and writing from/to buffer
-					size = stream.read(buffer, 0, 1024);
-					if(size == -1) {
-						break;
+		
+		if(!transition(s, Player.State.PLAYING)) {	//Stopped while the line was opened
+			sourceLine.close();
+			return;
+		}
+		sourceLine.start(); 
+		final long start = java.lang.System.currentTimeMillis();
+		while(session == s) {	//Reading and writing from/to buffer
+			size = source.read(readPos, buffer, 0, buffer.length);	//Waits if a GrowingBuffer is not decoded that far
+			if(size == -1) {
+				break;
+			}
+			else {
+				readPos += size;
+				int frames = size / frameSize;
+				int lineSize = frames * lineCodec.getFrameSize();
+				if(effect != null || floating) {	//Apply the playback effect and dither to whole frames
+					codec.decode(buffer, 0, block, 0, frames);
+					if(effect != null) {
+						effect.process(block, 0, frames);
 					}
-					else {
-						sourceLine.write(buffer, 0, buffer.length);
-						playingTime = -start + java.lang.System.currentTimeMillis();
+					if(dither != null) {
+						dither.process(block, 0, frames);
 					}
-				}	//Closing procedure
-				if(playing) {
-					sourceLine.drain(); 
+					lineCodec.encode(block, 0, lineBuffer, 0, frames);
+				}
+				if(started && sourceLine.available() >= sourceLine.getBufferSize()) {	//Line ran empty before this write
+					Metrics.record("playerUnderrun", frames * format.getChannels());
+				}
+				sourceLine.write(lineBuffer, 0, lineSize);
+				started = true;
+				if(session == s) {	//A stop resets the time
+					playingTime = -start + java.lang.System.currentTimeMillis();
 				}
-				sourceLine.stop();  
-				sourceLine.close();
-				playing = false;
 			}
-		}.start();
+		}	//Closing procedure
+		if(session == s) {	//End of the data, not stopped
+			sourceLine.drain(); 
+		}
+		sourceLine.stop();  
+		sourceLine.close();
+		transition(s, Player.State.STOPPED);
 	}
 	
 	/**
 	 * Resets the playing time and stops the player.
 	 */
-	public void stop() {
+	public synchronized void stop() {
+		session++;
+		state = State.STOPPED;
 		playingTime = 0;
-		playing = false;
-	}
-	
-	/**
-	 * Cuts away all audio data before the selected position.
-	 * @param data Audio bytes
-	 * @param position Absolute array position
-	 * @return Cut byte array
-	 */
-	private byte[] cutPlayBytes(byte[] data, long position) {	//Cut out bytes from start to position
-		if(position > data.length) {
-			return data;
-		}
-		else {
-			setPosition(position);	//set position
-			return Arrays.copyOfRange(data, (int)position, data.length);
-		}
 	}
 }
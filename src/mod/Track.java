@@ -2,20 +2,39 @@ package mod;
 
 import javax.sound.sampled.AudioFormat;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import wave.Fingerprint;
+import wave.Loudness;
+import wave.Onsets;
+import wave.Peaks;
+
 /**
  * Custom wrapper class representing an audio file
  * Is used to store all the necessary data from a .wav or .mp3 file
+ * The data is stored in shared chunks with 64 bit positions, so a Track can be longer than 2 GB.
+ * Positions on the timeline are frame indices (long), see frameAt. Long Tracks are built with a Track.Builder.
  * @author Tobias Haider
  */
-public class Track {
+public class Track implements AudioSource {
 	
-	private static int index = 1;	//Static index counter
+	private static final AtomicInteger index = new AtomicInteger(1);	//Static index counter, Tracks are created on many threads
 	private final int id;	//Index of Track object
 	private final String name;	//Name of a Track
-	private final byte[] data;	//Audio data
+	private volatile byte[][] chunks;	//Audio data, split into shared chunks (see ChunkStore), null until a lazy Track is rendered
+	private Supplier<Track> pending;	//Renders the data of a lazy Track on first use, null once the data exists
+	private final long size;		//Length of the audio data in bytes
 	private final AudioFormat format;	//Audio format
 	private boolean modified;	//Modification tag used in toString()
 	private double length;		//length in seconds
+	private volatile Loudness loudness;	//Cached result of the loudness analysis, null until needed
+	private volatile Onsets onsets;		//Cached transient index, null until needed
+	private volatile Peaks peaks;		//Cached waveform overview, null until needed
+	private volatile Fingerprint fingerprint;	//Cached acoustic fingerprint, null until needed
 	
 	/**
 	 * Main contructor
@@ -25,13 +44,69 @@ public class Track {
 	 * @param modified Modified flag
 	 */
 	public Track(String name, byte[] data, AudioFormat format, boolean modified) {
-		id = index++;																
+		this(name, ChunkStore.intern(data), data.length, format, modified);
+	}
+
+	/**
+	 * Constructor for already interned chunks (see Builder and GrowingBuffer)
+	 * @param name Name of the Track
+	 * @param chunks Shared chunks, all of them CHUNK_SIZE long except the last one
+	 * @param size Length of the audio data in bytes
+	 * @param format Audio format
+	 * @param modified Modified flag
+	 */
+	Track(String name, byte[][] chunks, long size, AudioFormat format, boolean modified) {
+		id = index.getAndIncrement();																
 		this.name = name;
-		this.data = data;
+		this.chunks = chunks;
+		this.size = size;
 		this.format = format;
 		length = updateLength();
 		this.modified = modified;
 	}
+
+	/**
+	 * Constructor for a lazy Track, e.g. opened from a project. Size and format are known at once,
+	 * the audio data is only rendered when it is read the first time (playback, export, analysis).
+	 * @param name Name of the Track
+	 * @param size Length of the rendered data in bytes
+	 * @param format Audio format of the rendered data
+	 * @param renderer Renders the data, called at most once
+	 * @param peaks Known waveform overview, null if unknown
+	 */
+	public Track(String name, long size, AudioFormat format, Supplier<Track> renderer, Peaks peaks) {
+		this(name, null, size, format, true);
+		this.pending = renderer;
+		this.peaks = peaks;
+	}
+
+	/**
+	 * @return The shared chunks, rendered first if this is a lazy Track
+	 */
+	private byte[][] chunks() {
+		byte[][] c = chunks;
+		if(c == null) {
+			synchronized(this) {
+				if(chunks == null) {
+					Track t = pending.get();
+					if(t.size != size || !t.format.matches(format)) {
+						throw new IllegalStateException("Rendered data of " + name + " does not match the expected size and format");
+					}
+					chunks = t.chunks();
+					pending = null;
+				}
+				c = chunks;
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * @return False for a lazy Track which has not been read yet
+	 */
+	public boolean isRendered() {
+		return chunks != null;
+	}
 	
 	/**
 	 * Constructor used by the Converter to store data in a Track object
@@ -69,15 +144,107 @@ public class Track {
 	}
 	
 	/**
+	 * Assembles the shared chunks into one new byte array.
+	 * The returned array is a copy and can be modified freely.
 	 * @return Audio bytes array
+	 * @throws IllegalStateException if the Track does not fit into an array (use read or stream)
 	 */
 	public byte[] getData() {
+		if(size > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Track is too long for a single array");
+		}
+		byte[] data = new byte[(int)size];
+		read(0, data, 0, data.length);
 		return data;
 	}
 
+	/**
+	 * @return Length of the audio data in bytes
+	 */
+	@Override
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return Length of the audio data in frames
+	 */
+	public long getFrames() {
+		return size / format.getFrameSize();
+	}
+
+	/**
+	 * Conversion from seconds to a frame index on the timeline of this Track.
+	 * @param seconds Position in seconds
+	 * @return Frame index, between 0 and getFrames()
+	 */
+	public long frameAt(double seconds) {
+		return Math.max(0, Math.min(getFrames(), (long)(seconds * format.getFrameRate())));
+	}
+
+	/**
+	 * @return Input stream reading the audio data from the shared chunks without assembling them
+	 */
+	public InputStream stream() {
+		return new InputStream() {
+			private long pos = 0;
+
+			@Override
+			public int read() {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : 255 & b[0];
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) {
+				if(len == 0) {
+					return 0;
+				}
+				int n = Track.this.read(pos, b, off, len);
+				if(n > 0) {
+					pos += n;
+				}
+				return n;
+			}
+
+			@Override
+			public int available() {
+				return (int)Math.min(Integer.MAX_VALUE, size - pos);
+			}
+		};
+	}
+
+	/**
+	 * Copies a part of the audio data without assembling the whole array.
+	 * @param pos Absolute position in the audio data
+	 * @param dst Destination array
+	 * @param off Offset in the destination array
+	 * @param len Number of bytes to copy
+	 * @return Number of bytes copied, -1 if pos is at the end of the data
+	 */
+	@Override
+	public int read(long pos, byte[] dst, int off, int len) {
+		if(pos >= size) {
+			return -1;
+		}
+		len = (int)Math.min(len, size - pos);
+		byte[][] chunks = chunks();
+		int copied = 0;
+		while(copied < len) {
+			byte[] chunk = chunks[(int)(pos >>> ChunkStore.CHUNK_SHIFT)];
+			int inChunk = (int)(pos & (ChunkStore.CHUNK_SIZE - 1));
+			int n = Math.min(len - copied, chunk.length - inChunk);
+			System.arraycopy(chunk, inChunk, dst, off + copied, n);
+			copied += n;
+			pos += n;
+		}
+		return copied;
+	}
+
 	/**
 	 * @return Audio format
 	 */
+	@Override
 	public AudioFormat getFormat() {
 		return format;
 	}
@@ -89,6 +256,75 @@ public class Track {
 		return updateLength();
 	}
 	
+	/**
+	 * Analyzes the loudness on the first call, later calls return the cached result.
+	 * The audio data of a Track never changes, so the result stays valid.
+	 * @return Peak, true peak, RMS and integrated loudness
+	 */
+	public Loudness getLoudness() {
+		Loudness l = loudness;
+		if(l == null) {
+			l = Metrics.time("loudness", Modifier.samples(this), () -> Loudness.analyze(this));
+			loudness = l;
+		}
+		return l;
+	}
+
+	/**
+	 * Detects the transients on the first call, later calls return the cached index.
+	 * @return Sorted onset positions
+	 */
+	public Onsets getOnsets() {
+		Onsets o = onsets;
+		if(o == null) {
+			o = Metrics.time("onsets", Modifier.samples(this), () -> Onsets.analyze(this));
+			onsets = o;
+		}
+		return o;
+	}
+
+	/**
+	 * Calculates the acoustic fingerprint on the first call, later calls return the cached result.
+	 * @return Hashes of spectral peak pairs
+	 */
+	public Fingerprint getFingerprint() {
+		Fingerprint f = fingerprint;
+		if(f == null) {
+			f = Metrics.time("fingerprint", Modifier.samples(this), () -> Fingerprint.analyze(this));
+			fingerprint = f;
+		}
+		return f;
+	}
+
+	/**
+	 * Calculates the waveform overview on the first call, later calls return the cached result.
+	 * A lazy Track opened from a project already knows its overview, so it is not rendered to draw it.
+	 * @return Highest sample values of Peaks.COLUMNS columns
+	 */
+	public Peaks getPeaks() {
+		Peaks p = peaks;
+		if(p == null) {
+			p = Metrics.time("peaks", Modifier.samples(this), () -> Peaks.analyze(this, Peaks.COLUMNS));
+			peaks = p;
+		}
+		return p;
+	}
+
+	/**
+	 * @return Cached waveform overview, null if it was never calculated
+	 */
+	public Peaks getCachedPeaks() {
+		return peaks;
+	}
+
+	/**
+	 * Sets the loudness if it is already known, e.g. after scaling a Track with known loudness.
+	 * @param loudness Loudness of this Track
+	 */
+	void setLoudness(Loudness loudness) {
+		this.loudness = loudness;
+	}
+	
 	/**
 	 * Calculates the length of the Track in seconds using information from the data array and the Audio format.
 	 * (Array length, sample rate, sample size, channels)
@@ -99,9 +335,121 @@ public class Track {
 		int sampleSizeInBits = format.getSampleSizeInBits();
 		int channels = format.getChannels();
 		double bytesPerSecond = ((sampleRate * sampleSizeInBits * channels) / 8.0);
-		return data.length/bytesPerSecond;
+		return size/bytesPerSecond;
 	}
 	
+	/**
+	 * Builds a Track of any length by appending data. Full chunks are interned as soon as they are complete,
+	 * so no array larger than a chunk is ever allocated. Chunk aligned ranges of other Tracks are shared without copying.
+	 */
+	public static class Builder {
+		private final String name;
+		private final AudioFormat format;
+		private final List<byte[]> chunks = new ArrayList<>();
+		private byte[] pending = new byte[ChunkStore.CHUNK_SIZE];	//Chunk being filled
+		private int fill = 0;	//Bytes in pending
+		private long size = 0;
+
+		/**
+		 * @param name Name of the Track
+		 * @param format Audio format
+		 */
+		public Builder(String name, AudioFormat format) {
+			this.name = name;
+			this.format = format;
+		}
+
+		/**
+		 * Appends audio bytes.
+		 * @param data Audio bytes
+		 * @param off Start in data
+		 * @param len Number of bytes
+		 * @return this
+		 */
+		public Builder write(byte[] data, int off, int len) {
+			while(len > 0) {
+				int n = Math.min(len, pending.length - fill);
+				System.arraycopy(data, off, pending, fill, n);
+				fill += n;
+				off += n;
+				len -= n;
+				size += n;
+				if(fill == pending.length) {
+					chunks.add(ChunkStore.intern(pending, 0, fill));
+					fill = 0;
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Appends a range of another Track. Whole chunks are shared if both positions are chunk aligned.
+		 * @param t Track to copy from
+		 * @param pos Start in t in bytes
+		 * @param len Number of bytes
+		 * @return this
+		 */
+		public Builder write(Track t, long pos, long len) {
+			len = Math.max(0, Math.min(len, t.size - pos));
+			while(len > 0) {
+				if(fill == 0 && (pos & (ChunkStore.CHUNK_SIZE - 1)) == 0 && len >= ChunkStore.CHUNK_SIZE) {
+					chunks.add(t.chunks()[(int)(pos >>> ChunkStore.CHUNK_SHIFT)]);	//Shared, no copy
+					pos += ChunkStore.CHUNK_SIZE;
+					len -= ChunkStore.CHUNK_SIZE;
+					size += ChunkStore.CHUNK_SIZE;
+					continue;
+				}
+				int n = (int)Math.min(len, pending.length - fill);
+				n = t.read(pos, pending, fill, n);
+				fill += n;
+				pos += n;
+				len -= n;
+				size += n;
+				if(fill == pending.length) {
+					chunks.add(ChunkStore.intern(pending, 0, fill));
+					fill = 0;
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Appends silent bytes (zero).
+		 * @param len Number of bytes
+		 * @return this
+		 */
+		public Builder writeSilence(long len) {
+			byte[] zeros = new byte[(int)Math.min(len, ChunkStore.CHUNK_SIZE)];
+			while(len > 0) {
+				int n = (int)Math.min(len, zeros.length);
+				write(zeros, 0, n);
+				len -= n;
+			}
+			return this;
+		}
+
+		/**
+		 * @return Number of bytes written so far
+		 */
+		public long size() {
+			return size;
+		}
+
+		/**
+		 * Creates the Track, the Builder must not be used afterwards.
+		 * @param modified Modified flag
+		 * @return Track object
+		 */
+		public Track build(boolean modified) {
+			if(fill > 0) {
+				chunks.add(ChunkStore.intern(pending, 0, fill));
+				fill = 0;
+			}
+			pending = null;
+			return new Track(name, chunks.toArray(new byte[0][]), size, format, modified);
+		}
+	}
+
 	/**
 	 * Custom toString function necessary for the user interface
 	 */
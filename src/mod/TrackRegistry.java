@@ -0,0 +1,136 @@
+package mod;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Thread-safe set of the Tracks the user works with, indexed by Track id.
+ * Loaders and background workers add, replace and remove Tracks from any thread, the map is a ConcurrentHashMap
+ * and needs no lock. Listeners are called on the thread which made the change.
+ * Changes made at the same time can reach a listener in any order, so a listener should check
+ * the current state with contains instead of replaying the events (see ui.TrackListModel).
+ * @author Tobias Haider
+ */
+public class TrackRegistry {
+
+	/**
+	 * Receives the changes of the registry.
+	 */
+	public interface Listener {
+		/**
+		 * @param t Added Track
+		 */
+		void added(Track t);
+
+		/**
+		 * @param old Replaced Track
+		 * @param t New Track taking its place
+		 */
+		void replaced(Track old, Track t);
+
+		/**
+		 * @param t Removed Track
+		 */
+		void removed(Track t);
+	}
+
+	private final Map<Integer, Track> tracks = new ConcurrentHashMap<>();	//id -> Track
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @param l Listener receiving all later changes
+	 */
+	public void addListener(Listener l) {
+		listeners.add(l);
+	}
+
+	/**
+	 * Adds a Track, Tracks which are already registered are ignored.
+	 * @param t Track
+	 * @return True if the Track was added
+	 */
+	public boolean add(Track t) {
+		if(tracks.putIfAbsent(t.getId(), t) != null) {
+			return false;
+		}
+		for(Listener l : listeners) {
+			l.added(t);
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces a Track by a new one, e.g. a file which was loaded again.
+	 * The new Track has its own id, so it is registered before the old one is removed:
+	 * readers never miss the Track, for a moment they may see both. Listeners get a single change.
+	 * If old is not registered (anymore) the new Track is simply added.
+	 * @param old Registered Track
+	 * @param t New Track
+	 */
+	public void replace(Track old, Track t) {
+		if(tracks.putIfAbsent(t.getId(), t) != null) {	//Already registered
+			remove(old);
+			return;
+		}
+		boolean replaced = tracks.remove(old.getId(), old);
+		for(Listener l : listeners) {
+			if(replaced) {
+				l.replaced(old, t);
+			} else {
+				l.added(t);
+			}
+		}
+	}
+
+	/**
+	 * @param t Track to remove
+	 * @return True if the Track was registered
+	 */
+	public boolean remove(Track t) {
+		if(!tracks.remove(t.getId(), t)) {
+			return false;
+		}
+		for(Listener l : listeners) {
+			l.removed(t);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes all Tracks.
+	 */
+	public void clear() {
+		for(Track t : tracks.values()) {
+			remove(t);
+		}
+	}
+
+	/**
+	 * @param id Id of a Track
+	 * @return Registered Track with this id, null if there is none
+	 */
+	public Track get(int id) {
+		return tracks.get(id);
+	}
+
+	/**
+	 * @param t Track
+	 * @return True if the Track is registered
+	 */
+	public boolean contains(Track t) {
+		return tracks.get(t.getId()) == t;
+	}
+
+	/**
+	 * @return Snapshot of all registered Tracks, sorted by id
+	 */
+	public List<Track> getTracks() {
+		List<Track> list = new ArrayList<>(tracks.values());
+		list.sort(Comparator.comparingInt(Track::getId));
+		return list;
+	}
+}
@@ -0,0 +1,215 @@
+package ui;
+
+import javax.swing.JPanel;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import mod.Metrics;
+import mod.Track;
+import wave.FFT;
+import wave.SampleCodec;
+
+/**
+ * The Spectrogram class draws the frequency content of a Track over time (short time fourier transform).
+ * The image is split into tiles of TILE_WIDTH columns. Tiles are computed in parallel on background threads
+ * and cached per Track and zoom level, so scrolling only computes tiles which have never been visible.
+ * Mouse wheel scrolls, mouse wheel with ctrl zooms.
+ * @author Tobias Haider
+ */
+public class Spectrogram extends JPanel {
+
+	private static final long serialVersionUID = 1L;
+	private static final int FFT_SIZE = 1024;
+	private static final int TILE_WIDTH = 256;	//Columns per tile
+	private static final int TILE_HEIGHT = FFT_SIZE / 4;	//Two frequency bins per pixel
+	private static final int MAX_TILES = 192;	//Cached tiles (256 KiB each)
+	private static final double MIN_DB = -100;	//Power mapped to black
+
+	private static final ExecutorService workers = Executors.newFixedThreadPool(
+			Math.max(1, Runtime.getRuntime().availableProcessors() - 1), r -> {
+				Thread t = new Thread(r, "spectrogram");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			});
+	private static final ThreadLocal<FFT> ffts = ThreadLocal.withInitial(() -> new FFT(FFT_SIZE));
+
+	private final Map<String, BufferedImage> tiles = Collections.synchronizedMap(
+			new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {	//Least recently used tiles are dropped
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+					return size() > MAX_TILES;
+				}
+			});
+	private final Set<String> pending = ConcurrentHashMap.newKeySet();	//Tiles being computed
+	private volatile Track track;
+	private int zoom;	//Frames per column = 2^zoom
+	private int scroll;	//First visible column
+
+	public Spectrogram() {
+		setBackground(new Color(20, 20, 20));
+		setPreferredSize(new Dimension(500, 100));
+		addMouseWheelListener(this::wheel);
+	}
+
+	/**
+	 * Shows a new Track. The zoom level is chosen so the whole Track fits into the panel.
+	 * @param t Track to show (null to clear)
+	 */
+	public void setTrack(Track t) {
+		track = t;
+		scroll = 0;
+		zoom = 0;
+		if(t != null) {
+			long frames = t.getFrames();
+			while((frames >> zoom) > Math.max(1, getWidth())) {
+				zoom++;
+			}
+		}
+		repaint();
+	}
+
+	/**
+	 * Scrolls or zooms (with ctrl) the view.
+	 * @param e Mouse wheel event
+	 */
+	private void wheel(MouseWheelEvent e) {
+		if(track == null) {
+			return;
+		}
+		if(e.isControlDown()) {
+			int center = scroll + e.getX();
+			int old = zoom;
+			zoom = Math.max(0, Math.min(30, zoom + e.getWheelRotation()));
+			scroll = Math.max(0, (int)((((long)center) << old >> zoom)) - e.getX());
+		} else {
+			scroll = Math.max(0, Math.min(columns() - getWidth(), scroll + e.getWheelRotation() * TILE_WIDTH / 4));
+		}
+		repaint();
+	}
+
+	/**
+	 * @return Number of columns of the whole Track at the current zoom level
+	 */
+	private int columns() {
+		Track t = track;
+		return t == null ? 0 : (int)Math.min(Integer.MAX_VALUE - 1, t.getFrames() >> zoom) + 1;
+	}
+
+	/**
+	 * Draws all visible tiles, missing tiles are scheduled for computation.
+	 * @param g Graphics object
+	 */
+	@Override
+	public void paint(Graphics g) {
+		g.setColor(getBackground());
+		g.fillRect(0, 0, getWidth(), getHeight());
+		Track t = track;
+		if(t == null) {
+			return;
+		}
+		int columns = columns();
+		for(int tile = scroll / TILE_WIDTH; tile * TILE_WIDTH < Math.min(columns, scroll + getWidth()); tile++) {
+			String key = t.getId() + ":" + zoom + ":" + tile;
+			BufferedImage image = tiles.get(key);
+			if(image == null) {
+				schedule(t, zoom, tile, key);
+			} else {
+				int x = tile * TILE_WIDTH - scroll;
+				g.drawImage(image, x, 0, x + TILE_WIDTH, getHeight(), 0, 0, TILE_WIDTH, TILE_HEIGHT, null);
+			}
+		}
+	}
+
+	/**
+	 * Computes a tile on a background thread and repaints when it is done.
+	 */
+	private void schedule(Track t, int zoom, int tile, String key) {
+		if(!pending.add(key)) {
+			return;
+		}
+		workers.execute(() -> {
+			try {
+				if(t == track) {	//Skip tiles of Tracks which are no longer shown
+					tiles.put(key, computeTile(t, zoom, tile));
+					repaint();
+				}
+			} finally {
+				pending.remove(key);
+			}
+		});
+	}
+
+	/**
+	 * Computes TILE_WIDTH columns. Every column is the power spectrum of FFT_SIZE frames (channels mixed down).
+	 * @param t Track
+	 * @param zoom Zoom level (frames per column = 2^zoom)
+	 * @param tile Index of the tile
+	 * @return Image of the tile
+	 */
+	private static BufferedImage computeTile(Track t, int zoom, int tile) {
+		FFT fft = ffts.get();
+		SampleCodec codec = SampleCodec.forFormat(t.getFormat());
+		int channels = codec.getChannels();
+		int frameSize = codec.getFrameSize();
+		byte[] bytes = new byte[FFT_SIZE * frameSize];
+		float[][] block = new float[channels][FFT_SIZE];
+		double[] samples = new double[FFT_SIZE];
+		double[] power = new double[fft.bins()];
+		double[] scratch = new double[FFT_SIZE];
+		BufferedImage image = new BufferedImage(TILE_WIDTH, TILE_HEIGHT, BufferedImage.TYPE_INT_RGB);
+
+		Metrics.run("spectrogramTile", (long)TILE_WIDTH * FFT_SIZE * channels, () -> {
+			for(int x = 0; x < TILE_WIDTH; x++) {
+				long frame = ((long)tile * TILE_WIDTH + x) << zoom;
+				long pos = frame * frameSize;
+				if(pos >= t.getSize()) {
+					break;
+				}
+				int read = t.read(pos, bytes, 0, bytes.length);
+				int frames = Math.max(0, read) / frameSize;
+				codec.decode(bytes, 0, block, 0, frames);
+				for(int i = 0; i < FFT_SIZE; i++) {
+					double sum = 0;
+					if(i < frames) {
+						for(float[] c : block) {
+							sum += c[i];
+						}
+					}
+					samples[i] = sum / channels;
+				}
+				fft.power(samples, 0, power, scratch);
+				for(int y = 0; y < TILE_HEIGHT; y++) {
+					double p = Math.max(power[2 * y], power[2 * y + 1]) / (FFT_SIZE * FFT_SIZE / 16.0);
+					image.setRGB(x, TILE_HEIGHT - 1 - y, color(10 * Math.log10(p + 1e-20)));
+				}
+			}
+		});
+		return image;
+	}
+
+	/**
+	 * Maps a power in dB to a color (black, blue, red, yellow, white).
+	 * @param db Power in dB (0 = full scale)
+	 * @return RGB value
+	 */
+	private static int color(double db) {
+		double v = Math.max(0, Math.min(1, (db - MIN_DB) / -MIN_DB));
+		int r = (int)(255 * Math.min(1, Math.max(0, 3 * v - 1)));
+		int g = (int)(255 * Math.min(1, Math.max(0, 3 * v - 2)));
+		int b = (int)(255 * Math.min(1, Math.max(0, v < 0.5 ? 2 * v : 2 - 2 * v)) + (v > 0.9 ? 255 * (v - 0.9) * 10 : 0));
+		return (r << 16) | (g << 8) | Math.min(255, b);
+	}
+}
@@ -0,0 +1,78 @@
+package ui;
+
+import javax.swing.DefaultListModel;
+import javax.swing.SwingUtilities;
+
+import mod.Track;
+import mod.TrackRegistry;
+
+/**
+ * ListModel showing the Tracks of a TrackRegistry. Changes may come from any thread, they are applied
+ * on the event dispatch thread. Events of different threads can arrive in any order, so every event only
+ * brings the model in line with the current state of the registry (a Track removed before its added event
+ * arrives is never shown).
+ * @author Tobias Haider
+ */
+public class TrackListModel extends DefaultListModel<Track> implements TrackRegistry.Listener {
+
+	private static final long serialVersionUID = 1L;
+	private final transient TrackRegistry registry;	//Registry shown by this model
+
+	/**
+	 * Constructor for a model following a registry
+	 * @param registry Registry of the Tracks
+	 */
+	public TrackListModel(TrackRegistry registry) {
+		this.registry = registry;
+		for(Track t : registry.getTracks()) {
+			addElement(t);
+		}
+		registry.addListener(this);
+	}
+
+	@Override
+	public void added(Track t) {
+		onEdt(() -> {
+			if(registry.contains(t) && indexOf(t) < 0) {
+				addElement(t);
+			}
+		});
+	}
+
+	@Override
+	public void replaced(Track old, Track t) {
+		onEdt(() -> {
+			int index = indexOf(old);
+			if(!registry.contains(t) || indexOf(t) >= 0) {	//Already removed or shown
+				if(index >= 0) {
+					removeElementAt(index);
+				}
+			} else if(index >= 0) {
+				set(index, t);	//Keeps the position in the list
+			} else {
+				addElement(t);
+			}
+		});
+	}
+
+	@Override
+	public void removed(Track t) {
+		onEdt(() -> {
+			if(!registry.contains(t)) {
+				removeElement(t);
+			}
+		});
+	}
+
+	/**
+	 * Runs a change at once on the event dispatch thread, otherwise later on it.
+	 * @param r Change of the model
+	 */
+	private static void onEdt(Runnable r) {
+		if(SwingUtilities.isEventDispatchThread()) {
+			r.run();
+		} else {
+			SwingUtilities.invokeLater(r);
+		}
+	}
+}
@@ -1,14 +1,24 @@
 package ui;
 
 import java.awt.BorderLayout;
+import java.awt.Font;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import javax.swing.DefaultListModel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import javax.sound.sampled.AudioFormat;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JList;
@@ -18,19 +28,33 @@ import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
+import javax.swing.JTextArea;
 import javax.swing.JToolBar;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 
+import batch.Project;
+import batch.Recipe;
 import mod.Player;
+import mod.TrackRegistry;
 import mod.Track;
 import mod.Converter;
+import mod.DirectoryWatcher;
+import mod.GrowingBuffer;
 import mod.Modifier;
+import mod.Metrics;
+import wave.Convolver;
+import wave.Dynamics;
+import wave.Fingerprint;
+import wave.FingerprintIndex;
 
 /**
  * Handles all UI elements which allow the user to interact with the program.
  * Interacts directly with the classes Converter, Modifier and Player. Uses the Track class to store audio files.
  * The main elements are various buttons which cause different actions (play a track, cut files etc.) in the classes mentioned above.
- * A JList shows the elements currently loaded or being modified.
+ * A JList shows the elements currently loaded or being modified, they are kept in a TrackRegistry so loaders can add them from any thread.
  * @author Tobias Haider
  */
 
@@ -39,11 +63,20 @@ public class UserInterface extends JFrame implements ActionListener{
 	private static final long serialVersionUID = 1634782744123000578L;
 	private final String STANDARD_PATH_STRING = "..\\resources";	//Standard Path String
 	private final JList<Track> jTrackList;	//JList visualizing the ListModel
-	private final DefaultListModel<Track> trackList;	//ListModel containing Tracks
+	private final TrackRegistry registry;	//Tracks of the list, can be changed from any thread
+	private final TrackListModel trackList;	//ListModel showing the registry
 	private final Player player;	//Player object used to play Tracks
 	private final Waveform waveform;	//JPanel representing a waveform 				
-	private JButton play, skip, save, remove, cut, fadeIn, fadeOut, addSil, volume, autocut, concat, add, substract ;
+	private final Spectrogram spectrogram;	//JPanel representing the frequency content
+	private JButton play, skip, save, remove, cut, fadeIn, fadeOut, addSil, volume, normalize, autocut, concat, add, substract, convolve ;
 	private File dir; //Directory with mp3 files
+	private final Map<File, DirectoryWatcher> watchers = new HashMap<>();	//Watched directories
+	private final Map<File, Track> library = new ConcurrentHashMap<>();	//Track of every loaded file, updated by the loader threads
+	private final FingerprintIndex fingerprints = new FingerprintIndex();	//Fingerprints of the library Tracks
+	private final Map<Track, File> sources = Collections.synchronizedMap(new WeakHashMap<>());	//Source file of every Track which can be saved in a project
+	private final Map<Track, Recipe> recipes = Collections.synchronizedMap(new WeakHashMap<>());	//Edits which turn the source into the Track
+	private boolean snapTransients, snapZero;	//Snap entered times to transients / zero crossings
+	private static final int MIN_MATCHES = 20;	//Least matching fingerprint hashes of a duplicate
 	
 	/**
 	 * Constructor for the user interface
@@ -53,10 +86,12 @@ public class UserInterface extends JFrame implements ActionListener{
 	public UserInterface() {
 		super("cut&play");
 		this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		trackList = new DefaultListModel<Track>();
+		registry = new TrackRegistry();
+		trackList = new TrackListModel(registry);
 		jTrackList = new JList<Track>(trackList);
 		player = new Player();
 		waveform = new Waveform();
+		spectrogram = new Spectrogram();
 		initDir(STANDARD_PATH_STRING);
 		initTrackList();
 		initButtons();
@@ -86,7 +121,9 @@ public class UserInterface extends JFrame implements ActionListener{
                 final List<Track> selectedValuesList = jTrackList.getSelectedValuesList();
                 if(selectedValuesList.size() > 0) {
                     player.setTrack(selectedValuesList.get(0));
-                    waveform.createWaveForm(player.getTrack().getData());
+                    Track t = player.getTrack();
+                    waveform.setTrack(t);	//Drawn from Peaks, the Track is not copied on the EDT
+                    spectrogram.setTrack(player.getTrack());
                 }
                 player.stop();
             }
@@ -101,21 +138,27 @@ public class UserInterface extends JFrame implements ActionListener{
         
 		JToolBar toolbar = new JToolBar(); 	
 		
+		JTabbedPane views = new JTabbedPane();	//Time and frequency domain view
+		views.addTab("Waveform", waveform);
+		views.addTab("Spectrogram", spectrogram);
+		
 		toolbar.add(playerPanel);
-		toolbar.add(waveform);
+		toolbar.add(views);
 		
 		JPanel modPanel = new JPanel();	//Configure modification panel
-		modPanel.setLayout(new GridLayout(3,3));
+		modPanel.setLayout(new GridLayout(4,3));
 		
 		modPanel.add(cut);
 		modPanel.add(fadeIn);
 		modPanel.add(fadeOut);
 		modPanel.add(addSil);
 		modPanel.add(volume);
+		modPanel.add(normalize);
 		modPanel.add(autocut);
 		modPanel.add(concat);
 		modPanel.add(add);
 		modPanel.add(substract);
+		modPanel.add(convolve);
 		
 		getContentPane().add(new JScrollPane(jTrackList), BorderLayout.CENTER);	//Configure position of elements
 		getContentPane().add(toolbar, BorderLayout.SOUTH);
@@ -123,28 +166,76 @@ public class UserInterface extends JFrame implements ActionListener{
 	}
 	/**
 	 * The ListModel is filled with tracks from the current directory.
-	 * Using static functions from the Converter class, .mp3 and .wav Files can be loaded.
+	 * A DirectoryWatcher loads the .mp3 and .wav Files in the background and keeps the list up to date:
+	 * new files are added, changed files are replaced and deleted files are removed.
+	 * Directories which are already watched are not loaded again.
 	 */
 	public void initTrackList() {	
-		  try {
-			  File[] directoryListing = dir.listFiles();
-			  if (directoryListing != null) {
-				  Track t = null;
-				  	for (File child : directoryListing) {
-				  		if(child.getPath().endsWith("wav")) {
-				  			t = Converter.getTrackFromWav(child);
-				  		}
-				  		if(child.getPath().endsWith("mp3")) {
-				  			t = Converter.getTrackFromMP3(child);
-				  		}
-				  		if(t != null) {
-					  		trackList.addElement(t);
-				  		}
-				  	}
-			    }
-		  } catch (Exception e) {
-			  e.printStackTrace();
-		  }
+		if(watchers.containsKey(dir)) {
+			return;
+		}
+		try {
+			watchers.put(dir, new DirectoryWatcher(dir, new DirectoryWatcher.Listener() {
+				@Override
+				public void loaded(File f, Track t) {
+					updateLibrary(f, t);
+				}
+
+				@Override
+				public void removed(File f) {
+					updateLibrary(f, null);
+				}
+			}));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Adds, replaces or removes the Track of a file in the list (runs on the loader thread of the directory).
+	 * The fingerprint of a new Track is calculated on the loader thread as well and added to the library index.
+	 * @param f Audio file
+	 * @param t New Track of the file, null if the file was deleted
+	 */
+	private void updateLibrary(File f, Track t) {
+		if(t != null) {	//Known before the Track shows up in the list
+			sources.put(t, f);
+			recipes.put(t, Recipe.parse(""));
+		}
+		Track old = t == null ? library.remove(f) : library.put(f, t);
+		if(t == null) {
+			if(old != null) {
+				registry.remove(old);
+			}
+		} else if(old != null) {
+			registry.replace(old, t);
+		} else {
+			registry.add(t);
+		}
+		if(old != null) {
+			fingerprints.remove(old.getId());
+		}
+		if(t != null) {
+			fingerprints.add(t.getId(), t.getFingerprint());
+		}
+	}
+
+	/**
+	 * Stops watching all directories, called when the list is cleared.
+	 */
+	private void closeWatchers() {
+		for(DirectoryWatcher w : watchers.values()) {
+			try {
+				w.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		watchers.clear();
+		for(Track t : library.values()) {
+			fingerprints.remove(t.getId());
+		}
+		library.clear();
 	}
 	
 	/**
@@ -179,6 +270,9 @@ public class UserInterface extends JFrame implements ActionListener{
 		volume = new JButton("Modify volume");
 		volume.setActionCommand("volume");
 		volume.addActionListener(this);
+		normalize = new JButton("Normalize");
+		normalize.setActionCommand("normalize");
+		normalize.addActionListener(this);
 		autocut = new JButton("Autocut");
 		autocut.setActionCommand("autocut");
 		autocut.addActionListener(this);
@@ -191,11 +285,22 @@ public class UserInterface extends JFrame implements ActionListener{
 		substract = new JButton("Subtract waveform");
 		substract.setActionCommand("subtract");
 		substract.addActionListener(this);
+		convolve = new JButton("Convolve (IR)");
+		convolve.setActionCommand("convolve");
+		convolve.addActionListener(this);
 	}
 	
 	/**
 	 * A JMenuBar is added to the user interface.
 	 * The items "Exit" and "Load new Files" with their ActionListeners are added to the menubar.
+	 * "Play MP3 while loading" starts playback before the file is completely decoded.
+	 * Projects store the source files and edits of the listed Tracks instead of their audio.
+	 * Float loading keeps Tracks in 32 bit float until they are saved or played.
+	 * The playback menu sets an effect which is applied while playing.
+	 * The channels menu contains the per-channel operations, the dynamics menu limiter, compressor and noise gate.
+	 * The snap menu moves entered times (cut, fades, silence, skip) to the closest transient or zero crossing.
+	 * The library menu finds duplicates of the library files and the places where the selected Track occurs in them.
+	 * The statistics menu shows the timings collected by the Metrics class.
 	 */
 	private void initMenubar() {
 		JMenuBar menubar = new JMenuBar(); 
@@ -219,10 +324,170 @@ public class UserInterface extends JFrame implements ActionListener{
 			        initTrackList();
 		        }
 		});
+		JMenuItem stream = new JMenuItem("Play MP3 while loading");
+		fileMenu.add(stream);
+		stream.addActionListener(a -> {
+			JFileChooser chooser = new JFileChooser(dir);
+			if(chooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+				playWhileLoading(chooser.getSelectedFile());
+			}
+		});
+		JCheckBoxMenuItem floatProcessing = new JCheckBoxMenuItem("Load in 32-bit float", Converter.isFloatProcessing());
+		fileMenu.add(floatProcessing);
+		floatProcessing.addActionListener(a -> {
+			Converter.setFloatProcessing(floatProcessing.isSelected());
+		});
+		JMenuItem saveProject = new JMenuItem("Save project");
+		fileMenu.add(saveProject);
+		saveProject.addActionListener(a -> {
+			JFileChooser chooser = new JFileChooser(dir);
+			if(chooser.showSaveDialog(null) == JFileChooser.APPROVE_OPTION) {
+				saveProject(chooser.getSelectedFile());
+			}
+		});
+		JMenuItem openProject = new JMenuItem("Open project");
+		fileMenu.add(openProject);
+		openProject.addActionListener(a -> {
+			JFileChooser chooser = new JFileChooser(dir);
+			if(chooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+				openProject(chooser.getSelectedFile());
+			}
+		});
 		JMenuItem clear = new JMenuItem("Clear list");
 		fileMenu.add(clear); 
 		clear.addActionListener(a -> {
-			trackList.clear();
+			closeWatchers();
+			registry.clear();
+		});
+		JMenu playbackMenu = new JMenu("Playback");
+		menubar.add(playbackMenu);
+		JMenuItem reverb = new JMenuItem("Play through impulse response");
+		playbackMenu.add(reverb);
+		reverb.addActionListener(a -> {
+			List<Track> list = getTrackList(popUpWindow("Enter index of the impulse response"));
+			if(!list.isEmpty() && player.getTrack() != null) {
+				player.setProcessor(new Convolver(Modifier.impulseResponse(list.get(0)), player.getTrack().getFormat().getChannels(), 1024,
+						Integer.parseInt(popUpWindow("Enter wet percentage"))));
+			}
+		});
+		JMenuItem limiter = new JMenuItem("Play through limiter");
+		playbackMenu.add(limiter);
+		limiter.addActionListener(a -> {
+			if(player.getTrack() != null) {
+				AudioFormat f = player.getTrack().getFormat();
+				player.setProcessor(Dynamics.limiter(f.getSampleRate(), f.getChannels(),
+						Double.parseDouble(popUpWindow("Enter ceiling in dB (e.g. -1)"))));
+			}
+		});
+		JMenuItem compressor = new JMenuItem("Play through compressor");
+		playbackMenu.add(compressor);
+		compressor.addActionListener(a -> {
+			if(player.getTrack() != null) {
+				AudioFormat f = player.getTrack().getFormat();
+				player.setProcessor(Dynamics.compressor(f.getSampleRate(), f.getChannels(),
+						Double.parseDouble(popUpWindow("Enter threshold in dB (e.g. -20)")),
+						Double.parseDouble(popUpWindow("Enter ratio (e.g. 4)"))));
+			}
+		});
+		JMenuItem noEffect = new JMenuItem("Play unmodified");
+		playbackMenu.add(noEffect);
+		noEffect.addActionListener(a -> {
+			player.setProcessor(null);
+		});
+		JMenu channelMenu = new JMenu("Channels");
+		menubar.add(channelMenu);
+		JMenuItem pan = new JMenuItem("Pan");
+		channelMenu.add(pan);
+		pan.addActionListener(a -> {
+			int position = Integer.parseInt(popUpWindow("Enter position (-100 = left, 0 = center, 100 = right)"));
+			addModified(Modifier.pan(player.getTrack(), position), "pan=" + position);
+		});
+		JMenuItem channelGain = new JMenuItem("Channel volume");
+		channelMenu.add(channelGain);
+		channelGain.addActionListener(a -> {
+			int channel = Integer.parseInt(popUpWindow("Enter channel (0 = left, 1 = right)"));
+			int perc = Integer.parseInt(popUpWindow("Enter percentage"));
+			addModified(Modifier.channelGain(player.getTrack(), channel, perc), "channelGain=" + channel + "," + perc);
+		});
+		JMenuItem downmix = new JMenuItem("Mono downmix");
+		channelMenu.add(downmix);
+		downmix.addActionListener(a -> {
+			addModified(Modifier.downmix(player.getTrack()), "mono");
+		});
+		JMenu snapMenu = new JMenu("Snap");
+		menubar.add(snapMenu);
+		JCheckBoxMenuItem transients = new JCheckBoxMenuItem("Snap to transients");
+		snapMenu.add(transients);
+		transients.addActionListener(a -> {
+			snapTransients = transients.isSelected();
+		});
+		JCheckBoxMenuItem zero = new JCheckBoxMenuItem("Snap to zero crossings");
+		snapMenu.add(zero);
+		zero.addActionListener(a -> {
+			snapZero = zero.isSelected();
+		});
+		JMenu dynamicsMenu = new JMenu("Dynamics");
+		menubar.add(dynamicsMenu);
+		JMenuItem limit = new JMenuItem("Limiter");
+		dynamicsMenu.add(limit);
+		limit.addActionListener(a -> {
+			float ceiling = Float.parseFloat(popUpWindow("Enter ceiling in dB (e.g. -1)"));
+			addModified(Modifier.limit(player.getTrack(), ceiling), "limit=" + ceiling);
+		});
+		JMenuItem compress = new JMenuItem("Compressor");
+		dynamicsMenu.add(compress);
+		compress.addActionListener(a -> {
+			float threshold = Float.parseFloat(popUpWindow("Enter threshold in dB (e.g. -20)"));
+			float ratio = Float.parseFloat(popUpWindow("Enter ratio (e.g. 4)"));
+			addModified(Modifier.compress(player.getTrack(), threshold, ratio), "compress=" + threshold + "," + ratio);
+		});
+		JMenuItem gate = new JMenuItem("Noise gate");
+		dynamicsMenu.add(gate);
+		gate.addActionListener(a -> {
+			float threshold = Float.parseFloat(popUpWindow("Enter threshold in dB (e.g. -50)"));
+			addModified(Modifier.gate(player.getTrack(), threshold), "gate=" + threshold);
+		});
+		JMenu libraryMenu = new JMenu("Library");
+		menubar.add(libraryMenu);
+		JMenuItem duplicates = new JMenuItem("Find duplicates");
+		libraryMenu.add(duplicates);
+		duplicates.addActionListener(a -> {
+			showReport("Duplicates", findDuplicates());
+		});
+		JMenuItem occurrences = new JMenuItem("Find selected Track in library");
+		libraryMenu.add(occurrences);
+		occurrences.addActionListener(a -> {
+			Track t = player.getTrack();
+			if(t != null) {
+				new SwingWorker<String, Void>() {	//The fingerprint of a new clip reads the whole Track
+					@Override
+					protected String doInBackground() {
+						return findOccurrences(t);
+					}
+
+					@Override
+					protected void done() {
+						try {
+							showReport("Occurrences", get());
+						} catch (InterruptedException | ExecutionException e) {
+							e.printStackTrace();
+							JOptionPane.showMessageDialog(UserInterface.this, "Could not search " + t + ": " + e.getMessage());
+						}
+					}
+				}.execute();
+			}
+		});
+		JMenu statsMenu = new JMenu("Statistics");
+		menubar.add(statsMenu);
+		JMenuItem showStats = new JMenuItem("Show operation statistics");
+		statsMenu.add(showStats);
+		showStats.addActionListener(a -> {
+			showReport("Operation statistics", Metrics.report());
+		});
+		JMenuItem resetStats = new JMenuItem("Reset statistics");
+		statsMenu.add(resetStats);
+		resetStats.addActionListener(a -> {
+			Metrics.reset();
 		});
 	}
 	
@@ -247,7 +512,7 @@ public class UserInterface extends JFrame implements ActionListener{
 			return;
 		}
 		if(command.equals("skip")) {	//Set new startpoint
-			player.setPosition(Float.parseFloat(popUpWindow("Enter start point in seconds.")));
+			player.setPosition(time("Enter start point in seconds."));
 			player.stop();
 			return;
 		}
@@ -264,49 +529,40 @@ public class UserInterface extends JFrame implements ActionListener{
 			else {
 				jTrackList.setSelectedIndex(index - 1);
 			}
-			trackList.removeElementAt(index);
+			registry.remove(trackList.get(index));
 			return;
 		}
 		if(command.equals("cut")) {	//Call cut function
-			player.setTrack(Modifier.cut(player.getTrack(), 
-									Float.parseFloat(popUpWindow("Enter start in seconds")), 
-									Float.parseFloat(popUpWindow("Enter end in senconds"))
-									));
-			jTrackList.setSelectedIndex(trackList.indexOf(player.getTrack()));
-			trackList.addElement(player.getTrack());
+			double from = time("Enter start in seconds");
+			double to = time("Enter end in senconds");
+			addModified(Modifier.cut(player.getTrack(), from, to), "cut=" + from + "," + to);
 			return;
 		}
 		if(command.equals("fadeIn")) {	//Call fadeIn function
-			player.setTrack(Modifier.fadeIn(player.getTrack(), 
-										Float.parseFloat(popUpWindow("Enter end in seconds"))
-										));
-			jTrackList.setSelectedIndex(trackList.indexOf(player.getTrack()));
-			trackList.addElement(player.getTrack());
+			double to = time("Enter end in seconds");
+			addModified(Modifier.fadeIn(player.getTrack(), to), "fadeIn=" + to);
 			return;
 		}
 		if(command.equals("fadeOut")) {	//Call fadeOut function
-			player.setTrack(Modifier.fadeOut(player.getTrack(), 
-										Float.parseFloat(popUpWindow("Enter start in seconds"))
-										));
-			jTrackList.setSelectedIndex(trackList.indexOf(player.getTrack()));
-			trackList.addElement(player.getTrack());
+			double from = time("Enter start in seconds");
+			addModified(Modifier.fadeOut(player.getTrack(), from), "fadeOut=" + from);
 			return;
 		}
 		if(command.equals("addSil")) {	//Call amplify function
-			player.setTrack(Modifier.addSil(player.getTrack(),
-										Float.parseFloat(popUpWindow("Enter the position in seconds")),
-										Float.parseFloat(popUpWindow("Enter seconds"))
-										));
-			jTrackList.setSelectedIndex(trackList.indexOf(player.getTrack()));
-			trackList.addElement(player.getTrack());
+			double pos = time("Enter the position in seconds");
+			float seconds = Float.parseFloat(popUpWindow("Enter seconds"));
+			addModified(Modifier.addSil(player.getTrack(), pos, seconds), "addSil=" + pos + "," + seconds);
 			return;
 		}
 		if(command.equals("volume")) {	//Call volume function
-			player.setTrack(Modifier.volume(player.getTrack(), 
-										Integer.parseInt(popUpWindow("Enter percentage"))
-										));
-			jTrackList.setSelectedIndex(trackList.indexOf(player.getTrack()));
-			trackList.addElement(player.getTrack());
+			int perc = Integer.parseInt(popUpWindow("Enter percentage"));
+			addModified(Modifier.volume(player.getTrack(), perc), "volume=" + perc);
+			return;
+		}
+		if(command.equals("normalize")) {	//Call normalize function
+			String target = popUpWindow(player.getTrack().getLoudness() + "\nEnter target loudness in LUFS (e.g. -16)");
+			float lufs = Float.parseFloat(target);
+			addModified(Modifier.normalize(player.getTrack(), lufs), "normalize=" + lufs);
 			return;
 		}
 		if(command.equals("autocut")) {	//Call autocut function
@@ -314,38 +570,225 @@ public class UserInterface extends JFrame implements ActionListener{
 			if(perc > 100 || perc < 0) {
 				return;
 			}
-			player.setTrack(Modifier.autoCut(player.getTrack(),
-                                        perc,
-                                        Float.parseFloat(popUpWindow("Enter the min duration for autocutting"))
-                                        ));
-			jTrackList.setSelectedIndex(trackList.indexOf(player.getTrack()));
-			trackList.addElement(player.getTrack());
+			float min = Float.parseFloat(popUpWindow("Enter the min duration for autocutting"));
+			addModified(Modifier.autoCut(player.getTrack(), perc, min), "autoCut=" + perc + "," + min);
 			return;
 		}
 		
 		if(command.equals("concat")) {	//Call concat function
 			List<Track> list = getTrackList(popUpWindow("Enter indices seperated by a ',' of the files you want to concatenate."));
 			if(!list.isEmpty()) {
-				trackList.addElement(Modifier.concat(list));
+				registry.add(Modifier.concat(list, Float.parseFloat(popUpWindow("Enter crossfade length in seconds (0 for none)"))));
 			}
 			return;
 		}
 		if(command.equals("add")) {	//Call add function
 			List<Track> list = getTrackList(popUpWindow("Enter indices seperated by a ',' of the files you want to add."));
 			if(!list.isEmpty()) {
-				trackList.addElement(Modifier.add(list));
+				registry.add(Modifier.add(list, confirm("Align the tracks before adding?")));
+			}
+			return;
+		}
+		if(command.equals("convolve")) {	//Call convolve function
+			List<Track> list = getTrackList(popUpWindow("Enter index of the impulse response"));
+			if(!list.isEmpty()) {
+				player.setTrack(Modifier.convolve(player.getTrack(), list.get(0),
+											Integer.parseInt(popUpWindow("Enter wet percentage"))
+											));
+				registry.add(player.getTrack());
 			}
 			return;
 		}
 		if(command.equals("subtract")) {	//Call substract function
 			List<Track> list = getTrackList(popUpWindow("Enter index of a file you want to substract from the selected one."));
 			if(!list.isEmpty()) {
-				trackList.addElement(Modifier.subtract(list));
+				registry.add(Modifier.subtract(list, confirm("Align the tracks before subtracting?")));
 			}
 			return;
 		}
 	}
 	
+	/**
+	 * Assistive function showing a modified Track in the player and adding it to the list.
+	 * The step is added to the Recipe of the Track, so it can be saved in a project.
+	 * @param t Modified Track
+	 * @param step Recipe step which made t from the current Track
+	 */
+	private void addModified(Track t, String step) {
+		Recipe r = recipes.get(player.getTrack());
+		if(r != null) {
+			sources.put(t, sources.get(player.getTrack()));
+			recipes.put(t, r.then(step));
+		}
+		player.setTrack(t);
+		jTrackList.setSelectedIndex(trackList.indexOf(player.getTrack()));
+		registry.add(player.getTrack());
+	}
+
+	/**
+	 * Starts decoding a .mp3 file and plays it at once, the waveform fills in while decoding goes on.
+	 * The finished Track is added to the list.
+	 * @param f .mp3 File
+	 */
+	private void playWhileLoading(File f) {
+		GrowingBuffer buffer;
+		try {
+			buffer = Converter.streamMP3(f);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
+		}
+		player.setSource(buffer);
+		waveform.follow(buffer);
+		spectrogram.setTrack(null);
+		player.play();
+		Thread waiter = new Thread(() -> {
+			try {
+				Track t = Converter.getTrack(buffer);
+				SwingUtilities.invokeLater(() -> {
+					sources.put(t, f);
+					recipes.put(t, Recipe.parse(""));
+					registry.add(t);
+				});
+			} catch (Exception e) {
+				e.printStackTrace();
+				SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+						"Could not decode " + f.getName() + ": " + e.getMessage()));
+			}
+		}, "loader " + f.getName());
+		waiter.setDaemon(true);
+		waiter.start();
+	}
+
+	/**
+	 * Saves the source file and edits of every listed Track in a project file.
+	 * Tracks made from several Tracks (concatenate, add, subtract, convolve) have no single source and are skipped.
+	 * @param f Project file
+	 */
+	private void saveProject(File f) {
+		List<Project.Entry> entries = new ArrayList<>();
+		int skipped = 0;
+		for(int i = 0; i < trackList.size(); i++) {
+			Track t = trackList.get(i);
+			if(recipes.containsKey(t)) {
+				entries.add(new Project.Entry(t, sources.get(t), recipes.get(t)));
+			} else {
+				skipped++;
+			}
+		}
+		try {
+			Project.save(f, entries);
+		} catch (IOException e) {
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(this, "Could not save " + f + ": " + e.getMessage());
+			return;
+		}
+		if(skipped > 0) {
+			JOptionPane.showMessageDialog(this, skipped + " Tracks made from several Tracks were not saved in the project");
+		}
+	}
+
+	/**
+	 * Adds the Tracks of a project file to the list. Nothing is decoded, every Track is rendered when it is played or saved.
+	 * @param f Project file
+	 */
+	private void openProject(File f) {
+		try {
+			Project project = Project.open(f);
+			for(int i = 0; i < project.size(); i++) {
+				Project.Entry entry = project.get(i);
+				Track t = entry.toTrack();
+				sources.put(t, entry.getSource());
+				recipes.put(t, entry.getRecipe());
+				registry.add(t);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(this, "Could not open " + f + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Lists every pair of library Tracks which contain the same audio (re-exports, trimmed copies).
+	 * Every Track is looked up in the fingerprint index once, Tracks are never compared with each other.
+	 * The threshold of a pair depends on the shorter fingerprint, so a clip inside a long Track is found
+	 * from both sides. A pair found from both sides is reported once.
+	 * @return Report with one line per pair
+	 */
+	private String findDuplicates() {
+		long start = System.nanoTime();
+		Map<Long, String> pairs = new TreeMap<>();	//Lower id, higher id -> line
+		for(Track t : library.values()) {
+			Fingerprint fp = t.getFingerprint();
+			for(FingerprintIndex.Match m : fingerprints.query(fp, t.getId(), MIN_MATCHES)) {
+				Fingerprint other = fingerprints.get(m.getId());
+				if(other == null || m.getScore() < threshold(fp, other)) {
+					continue;
+				}
+				long key = (long)Math.min(t.getId(), m.getId()) << 32 | Math.max(t.getId(), m.getId());
+				pairs.putIfAbsent(key, String.format("%s = %s at %.2f s (%d matches)%n", t, name(m.getId()), m.getOffset(), m.getScore()));
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for(String line : pairs.values()) {
+			sb.append(line);
+		}
+		return String.format("%d pairs among %d Tracks in %.1f ms%n%n", pairs.size(), fingerprints.size(), (System.nanoTime() - start) / 1e6) + sb;
+	}
+
+	/**
+	 * @param a Fingerprint of a Track
+	 * @param b Fingerprint of another Track
+	 * @return Least score of a duplicate, the same for both directions
+	 */
+	private static int threshold(Fingerprint a, Fingerprint b) {
+		return Math.max(MIN_MATCHES, Math.min(a.size(), b.size()) / 20);
+	}
+
+	/**
+	 * Lists the library Tracks containing a Track or clip. Runs on a background thread, the fingerprint may not be cached.
+	 * @param t Track or clip
+	 * @return Report with one line per library Track
+	 */
+	private String findOccurrences(Track t) {
+		Fingerprint fp = t.getFingerprint();
+		long start = System.nanoTime();
+		List<FingerprintIndex.Match> matches = new ArrayList<>();
+		for(FingerprintIndex.Match m : fingerprints.query(fp, t.getId(), MIN_MATCHES)) {
+			Fingerprint other = fingerprints.get(m.getId());
+			if(other != null && m.getScore() >= threshold(fp, other)) {
+				matches.add(m);
+			}
+		}
+		StringBuilder sb = new StringBuilder(String.format("%d Tracks contain %s, lookup in %.1f ms%n%n",
+				matches.size(), t, (System.nanoTime() - start) / 1e6));
+		for(FingerprintIndex.Match m : matches) {
+			sb.append(String.format("%s at %.2f s (%d matches)%n", name(m.getId()), m.getOffset(), m.getScore()));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param id Id of a Track
+	 * @return Name of the Track in the list
+	 */
+	private String name(int id) {
+		Track t = registry.get(id);
+		return t == null ? "#" + id : t.toString();
+	}
+
+	/**
+	 * Assistive function showing a monospaced text in a dialog window.
+	 * @param title Title of the window
+	 * @param text Text, e.g. a table
+	 */
+	private void showReport(String title, String text) {
+		JTextArea report = new JTextArea(text);
+		report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+		report.setEditable(false);
+		JOptionPane.showMessageDialog(this, new JScrollPane(report), title, JOptionPane.PLAIN_MESSAGE);
+	}
+
 	/**
 	 * Assistive function simply showing a dialog window and returning the String entered by the user.
 	 * @param msg Message string shown in the dialog window
@@ -355,6 +798,24 @@ public class UserInterface extends JFrame implements ActionListener{
 		return JOptionPane.showInputDialog(this, msg);
 	}
 
+	/**
+	 * Assistive function asking for a time, which is snapped to the closest transient or zero crossing if enabled.
+	 * @param msg Message string shown in the dialog window
+	 * @return Time in seconds
+	 */
+	private double time(String msg) {
+		return Modifier.snap(player.getTrack(), Double.parseDouble(popUpWindow(msg)), snapTransients, snapZero);
+	}
+
+	/**
+	 * Assistive function showing a yes/no dialog.
+	 * @param msg Question shown in the dialog window
+	 * @return True if the user clicked yes
+	 */
+	private boolean confirm(String msg) {
+		return JOptionPane.showConfirmDialog(this, msg, "cut&play", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION;
+	}
+
 	/**
 	 * Adds Tracks with the indices from the string to a selection list.
 	 * @param sel User input String in csv style
@@ -368,11 +829,10 @@ public class UserInterface extends JFrame implements ActionListener{
 			selList.add(Integer.parseInt(s));
 		}
 		
-		for(int i = 0; i < selList.size(); i++) {
-			for(int j = 0; j < trackList.size(); j++) {
-				if(trackList.get(j).getId() == selList.get(i)) {
-					selTracks.add(trackList.get(j));
-				}
+		for(int id : selList) {
+			Track t = registry.get(id);
+			if(t != null) {
+				selTracks.add(t);
 			}
 		}
 		return selTracks;
@@ -8,15 +8,41 @@ import java.awt.Graphics2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.Line2D.Double;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sound.sampled.AudioFormat;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import mod.GrowingBuffer;
+import mod.Metrics;
+import mod.Track;
+import wave.Peaks;
+import wave.SampleCodec;
 
 /**
- * The Waveform class draws a waveform from 2 byte audio data in little endian format.
+ * The Waveform class draws a waveform from PCM audio data, one lane per channel.
+ * A GrowingBuffer can be followed while it is decoded, the waveform then fills in progressively.
+ * Tracks are drawn from their Peaks overview, it is calculated on a background thread if it is not cached yet.
  * @author Daniel Binder
  */
 public class Waveform extends JPanel {
 
 	private static final long serialVersionUID = 1L;
+	private static final int FOLLOW_INTERVAL = 200;	//ms between two updates while following a GrowingBuffer
+	private static final ExecutorService analyzer = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "waveform");
+		t.setDaemon(true);
+		return t;
+	});
 	private Vector<Double> lines = new Vector<>();
+	private Timer follower;	//Appends new data of the followed buffer, null if none is followed
+	private GrowingBuffer followed;	//Buffer being decoded
+	private long drawnFrames;	//Frames of the followed buffer already drawn
+	private long scaleFrames;	//Frames mapped to the panel width while following
+	private double[] lastY;	//Last point of every lane while following
+	private volatile Track shown;	//Track whose Peaks are being calculated, null if none
 
 	public Waveform() {
 		setBackground(new Color(20, 20, 20));
@@ -28,34 +54,185 @@ public class Waveform extends JPanel {
      * @param audioBytes audio data to create waveform from (needs to be 2 bytes and in little endian format)
      */
 	public void createWaveForm(byte[] audioBytes) {
-	    lines = new Vector<>();
+		createWaveForm(audioBytes, new AudioFormat(44100, 16, 1, true, false));
+	}
 
-		short[] wave = new short[audioBytes.length / 2];
+    /**
+     * This method creates the waveform from audio data in any PCM format
+     * @param audioBytes audio data to create waveform from
+     * @param format format of the audio data
+     */
+	public void createWaveForm(byte[] audioBytes, AudioFormat format) {
+		stopFollowing();
+		SampleCodec codec = SampleCodec.forFormat(format);
+		Metrics.run("waveform", audioBytes.length / codec.getFrameSize() * codec.getChannels(), () -> buildLines(audioBytes, codec));
+		repaint();
+	}
 
-		double maxVal = 0;
-		for(int i = 0; i < audioBytes.length / 2; i++){
-			wave[i] = (short) (audioBytes[(i * 2) + 1] << 8 | (255 & audioBytes[i * 2]));
+	/**
+	 * This method draws a Track from its Peaks overview, so the Track is never copied as a whole.
+	 * If the overview is not cached it is calculated on a background thread and drawn when it is done,
+	 * unless another Track or buffer is drawn in the meantime.
+	 * @param t Track to draw
+	 */
+	public void setTrack(Track t) {
+		stopFollowing();
+		Peaks cached = t.getCachedPeaks();
+		if(cached != null) {
+			createWaveForm(cached);
+			return;
+		}
+		shown = t;
+		analyzer.execute(() -> {
+			if(shown != t) {	//Already replaced, skip it
+				return;
+			}
+			Peaks p = t.getPeaks();
+			SwingUtilities.invokeLater(() -> {
+				if(shown == t) {
+					createWaveForm(p);
+				}
+			});
+		});
+	}
 
-			if(wave[i] > maxVal) {     //biggest value for scaling height
-				maxVal = wave[i];
+	/**
+	 * This method draws a waveform overview, e.g. of a Track which is not rendered yet.
+	 * Every column is a vertical line from -peak to +peak, all lanes are scaled to full scale.
+	 * @param peaks overview to draw
+	 */
+	public void createWaveForm(Peaks peaks) {
+		stopFollowing();
+		lines = new Vector<>();
+		int columns = peaks.getColumns();
+		double xFactor = (getSize().width * 1.0) / Math.max(1, columns);
+		double laneHeight = getSize().height / (double) Math.max(1, peaks.getChannels());
+		for(int c = 0; c < peaks.getChannels(); c++) {
+			double yFactor = laneHeight / 2.0;
+			double offset = laneHeight * (c + 0.5);
+			for(int i = 0; i < columns; i++) {
+				double pointY = peaks.get(c, i) * yFactor;
+				lines.add(new Line2D.Double(i * xFactor, offset - pointY, i * xFactor, offset + pointY));
 			}
 		}
+		repaint();
+	}
+
+	/**
+	 * This method scales the audio data and creates one line per frame and channel.
+	 * Every channel is drawn in its own lane and scaled by its own maximum.
+	 * @param audioBytes audio data
+	 * @param codec codec for the format of the audio data
+	 */
+	private void buildLines(byte[] audioBytes, SampleCodec codec) {
+	    lines = new Vector<>();
 
-		double xFactor = (getSize().width * 1.0) / wave.length;    //scale wave length to panel size
-		double yFactor = (getSize().height / maxVal) / 2.0;  //scale wave height to panel size
-		double offset = getSize().height / 2.0;            //offset in middle
+		int channels = codec.getChannels();
+		int frames = audioBytes.length / codec.getFrameSize();
+		float[][] wave = new float[channels][frames];	//Planar, one array per channel
+		codec.decode(audioBytes, 0, wave, 0, frames);
 
-		double pointY;
-		double lastY = 0;
-		for(int i = 0; i < wave.length; i++) {
-			pointY = wave[i] * yFactor;
+		double xFactor = (getSize().width * 1.0) / frames;    //scale wave length to panel size
+		double laneHeight = getSize().height / (double) channels;
+		for(int c = 0; c < channels; c++) {
+			float[] lane = wave[c];
+			double maxVal = 0;
+			for(float value : lane) {
+				if(value > maxVal) {     //biggest value for scaling height
+					maxVal = value;
+				}
+			}
+			double yFactor = (laneHeight / maxVal) / 2.0;  //scale wave height to lane size
+			double offset = laneHeight * (c + 0.5);            //offset in middle of the lane
 
-			lines.add(new Line2D.Double(i * xFactor, pointY + offset,
-                    (i - 1) * xFactor, lastY + offset));
+			double pointY;
+			double lastY = 0;
+			for(int i = 0; i < frames; i++) {
+				pointY = lane[i] * yFactor;
 
-			lastY = pointY;
+				lines.add(new Line2D.Double(i * xFactor, pointY + offset,
+	                    (i - 1) * xFactor, lastY + offset));
+
+				lastY = pointY;
+			}
+		}
+	}
+
+	/**
+	 * This method draws a buffer which is still being decoded. New data is appended every FOLLOW_INTERVAL ms.
+	 * The maximum is not known yet, so all lanes are scaled to full scale. The x axis is scaled to the expected length,
+	 * if the buffer grows beyond it the waveform is drawn again with twice the length.
+	 * Once decoding is done the finished Track is drawn like any other Track, if it fails following stops.
+	 * @param b Buffer filled by a decoder
+	 */
+	public void follow(GrowingBuffer b) {
+		stopFollowing();
+		followed = b;
+		lines = new Vector<>();
+		drawnFrames = 0;
+		scaleFrames = Math.max(1, b.getExpectedSize() / b.getFormat().getFrameSize());
+		lastY = new double[b.getFormat().getChannels()];
+		follower = new Timer(FOLLOW_INTERVAL, e -> appendLines());
+		follower.start();
+	}
+
+	/**
+	 * Stops following a buffer, the lines drawn so far are kept.
+	 */
+	private void stopFollowing() {
+		shown = null;
+		if(follower != null) {
+			follower.stop();
+			follower = null;
+			followed = null;
 		}
+	}
 
+	/**
+	 * Draws the data decoded since the last call (runs on the event dispatch thread).
+	 */
+	private void appendLines() {
+		GrowingBuffer b = followed;
+		Track finished = b.getTrack();
+		if(finished != null) {
+			setTrack(finished);
+			return;
+		}
+		if(b.getError() != null) {	//Decoding failed, the part drawn so far is kept
+			stopFollowing();
+			return;
+		}
+		SampleCodec codec = SampleCodec.forFormat(b.getFormat());
+		int frameSize = codec.getFrameSize();
+		int channels = codec.getChannels();
+		long available = b.getSize() / frameSize;
+		if(available > scaleFrames) {	//Longer than expected, start again with a larger scale
+			scaleFrames = 2 * available;
+			drawnFrames = 0;
+			lines = new Vector<>();
+		}
+		if(available <= drawnFrames) {
+			return;
+		}
+		int frames = (int)Math.min(1 << 20, available - drawnFrames);	//At most 1M frames per update
+		byte[] bytes = new byte[frames * frameSize];
+		b.read(drawnFrames * frameSize, bytes, 0, bytes.length);	//Already decoded, does not block
+		float[][] wave = new float[channels][frames];
+		codec.decode(bytes, 0, wave, 0, frames);
+
+		double xFactor = (getSize().width * 1.0) / scaleFrames;
+		double laneHeight = getSize().height / (double) channels;
+		for(int c = 0; c < channels; c++) {
+			double yFactor = laneHeight / 2.0;	//Full scale fills the lane
+			double offset = laneHeight * (c + 0.5);
+			for(int i = 0; i < frames; i++) {
+				long x = drawnFrames + i;
+				double pointY = wave[c][i] * yFactor;
+				lines.add(new Line2D.Double(x * xFactor, pointY + offset, (x - 1) * xFactor, lastY[c] + offset));
+				lastY[c] = pointY;
+			}
+		}
+		drawnFrames += frames;
 		repaint();
 	}
 
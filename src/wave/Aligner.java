@@ -0,0 +1,183 @@
+package wave;
+
+import mod.Track;
+
+/**
+ * The Aligner finds the time offset between two recordings of the same material by FFT cross-correlation.
+ * A coarse search correlates the decimated amplitude envelopes of both Tracks (the whole signals if they are short),
+ * a fine search correlates a short full rate segment around the coarse result.
+ * Both steps are O(n log n), so full length Tracks are aligned quickly.
+ * @author Tobias Haider
+ */
+public class Aligner {
+    private static final int COARSE_LENGTH = 1 << 20;   //maximal length of the decimated envelopes
+    private static final int FINE_LENGTH = 1 << 16;     //length of the full rate segment
+
+    /**
+     * Calculates the lag of Track b relative to Track a
+     * @param a reference Track
+     * @param b Track to align
+     * @return lag in frames: positive if b starts later than a (b[n + lag] matches a[n])
+     */
+    public static int lag(Track a, Track b) {
+        int framesA = frames(a);
+        int framesB = frames(b);
+        int factor = 1;
+        while(Math.max(framesA, framesB) / factor > COARSE_LENGTH) {
+            factor <<= 1;
+        }
+
+        int coarse;
+        if(factor > 1) {
+            double[] envA = envelope(a, factor);
+            double[] envB = envelope(b, factor);
+            coarse = argMax(correlate(envA, envB, envA.length, envB.length), envA.length, envB.length) * factor;
+        } else {    //short Tracks: the whole signals are correlated at full rate
+            double[] monoA = mono(a, 0, framesA);
+            double[] monoB = mono(b, 0, framesB);
+            coarse = argMax(correlate(monoA, monoB, framesA, framesB), framesA, framesB);
+        }
+
+        //fine search in a segment from the middle of a, b is read with a margin covering the coarse error
+        int radius = 2 * factor;
+        int length = Math.min(FINE_LENGTH, Math.max(1, framesA));
+        int start = Math.max(0, framesA / 2 - length / 2);
+        double[] segA = mono(a, start, length);
+        double[] segB = mono(b, start + coarse - radius, length + 2 * radius);
+        double[] c = correlate(segA, segB, 0, 2 * radius);
+        int best = 0;
+        for(int k = 1; k <= 2 * radius; k++) {
+            if(c[k] > c[best]) {
+                best = k;
+            }
+        }
+        return coarse - radius + best;
+    }
+
+    /**
+     * Cross-correlation c[k] = sum of a[n] * b[n + k] for k from -maxNegative to maxPositive
+     * @param a first signal
+     * @param b second signal
+     * @param maxNegative largest negative lag needed
+     * @param maxPositive largest positive lag needed
+     * @return correlation, lag k at index k (negative lags at the end, circular)
+     */
+    private static double[] correlate(double[] a, double[] b, int maxNegative, int maxPositive) {
+        int n = 4;
+        while(n < Math.max(a.length, b.length) + Math.max(maxNegative, maxPositive) + 1) {
+            n <<= 1;
+        }
+        FFT fft = new FFT(n);
+        double[] padded = new double[n];
+        System.arraycopy(a, 0, padded, 0, a.length);
+        double[] aRe = new double[fft.bins()], aIm = new double[fft.bins()];
+        fft.forward(padded, 0, aRe, aIm);
+
+        java.util.Arrays.fill(padded, 0);
+        System.arraycopy(b, 0, padded, 0, b.length);
+        double[] bRe = new double[fft.bins()], bIm = new double[fft.bins()];
+        fft.forward(padded, 0, bRe, bIm);
+
+        for(int k = 0; k < fft.bins(); k++) {   //B * conj(A)
+            double re = bRe[k] * aRe[k] + bIm[k] * aIm[k];
+            double im = bIm[k] * aRe[k] - bRe[k] * aIm[k];
+            bRe[k] = re;
+            bIm[k] = im;
+        }
+        fft.inverse(bRe, bIm, padded, 0);
+        return padded;
+    }
+
+    /**
+     * Finds the lag with the highest correlation
+     * @param c circular correlation
+     * @param maxNegative largest negative lag
+     * @param maxPositive largest positive lag
+     * @return lag
+     */
+    private static int argMax(double[] c, int maxNegative, int maxPositive) {
+        int best = 0;
+        for(int k = -maxNegative; k <= maxPositive; k++) {
+            if(c[(k + c.length) % c.length] > c[(best + c.length) % c.length]) {
+                best = k;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Decimated amplitude envelope (mean absolute value of factor frames, mean removed)
+     * @param t Track
+     * @param factor frames per value
+     * @return envelope
+     */
+    private static double[] envelope(Track t, int factor) {
+        SampleCodec codec = SampleCodec.forFormat(t.getFormat());
+        int frameSize = codec.getFrameSize();
+        double[] env = new double[frames(t) / factor + 1];
+        int blockFrames = factor * Math.max(1, 16384 / factor);
+        byte[] buffer = new byte[blockFrames * frameSize];
+        float[][] block = new float[codec.getChannels()][blockFrames];
+        long pos = 0;
+        int frame = 0;
+        int read;
+        double mean = 0;
+        while((read = t.read(pos, buffer, 0, buffer.length)) > 0) {
+            int frames = read / frameSize;
+            codec.decode(buffer, 0, block, 0, frames);
+            for(int i = 0; i < frames && frame / factor < env.length; i++, frame++) {
+                double sum = 0;
+                for(float[] c : block) {
+                    sum += c[i];
+                }
+                env[frame / factor] += Math.abs(sum);
+            }
+            pos += read;
+        }
+        for(double v : env) {
+            mean += v / env.length;
+        }
+        for(int i = 0; i < env.length; i++) {
+            env[i] -= mean;
+        }
+        return env;
+    }
+
+    /**
+     * Reads a part of a Track as mono samples, frames outside the Track are 0
+     * @param t Track
+     * @param start first frame (may be negative)
+     * @param length number of frames
+     * @return samples
+     */
+    private static double[] mono(Track t, int start, int length) {
+        SampleCodec codec = SampleCodec.forFormat(t.getFormat());
+        int frameSize = codec.getFrameSize();
+        double[] samples = new double[length];
+        int from = Math.max(0, start);
+        int to = Math.min(frames(t), start + length);
+        if(to <= from) {
+            return samples;
+        }
+        byte[] bytes = new byte[(to - from) * frameSize];
+        t.read((long) from * frameSize, bytes, 0, bytes.length);
+        float[][] block = new float[codec.getChannels()][to - from];
+        codec.decode(bytes, 0, block, 0, to - from);
+        for(int f = 0; f < to - from; f++) {
+            double sum = 0;
+            for(float[] c : block) {
+                sum += c[f];
+            }
+            samples[from - start + f] = sum / block.length;
+        }
+        return samples;
+    }
+
+    /**
+     * @param t Track
+     * @return number of frames
+     */
+    private static int frames(Track t) {
+        return (int) Math.min(Integer.MAX_VALUE - 8, t.getFrames());
+    }
+}
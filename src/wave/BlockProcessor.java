@@ -0,0 +1,28 @@
+package wave;
+
+/**
+ * A BlockProcessor modifies audio data block by block, so it can be used offline (Modifier) and during playback (Player).
+ * Samples are stored per channel (planar) as float values, 1.0 is full scale.
+ * Blocks can have any length. Processors may delay the signal, the delay is reported by getLatency.
+ * @author Tobias Haider
+ */
+public interface BlockProcessor {
+
+    /**
+     * Processes a block in place
+     * @param block samples per channel
+     * @param off first frame of the block
+     * @param frames number of frames
+     */
+    void process(float[][] block, int off, int frames);
+
+    /**
+     * @return delay of the output in frames
+     */
+    int getLatency();
+
+    /**
+     * Clears all internal state, e.g. before playback restarts at another position
+     */
+    void reset();
+}
@@ -0,0 +1,186 @@
+package wave;
+
+import java.util.Arrays;
+
+/**
+ * The Convolver applies long FIR filters and impulse responses (e.g. reverbs) using FFT convolution.
+ * The impulse response is split into partitions of blockSize samples (uniformly partitioned overlap-save).
+ * Every partition is transformed once, the transformed input blocks are kept in a frequency domain delay line.
+ * Cost per sample is O(log blockSize + length / blockSize) instead of O(length) for direct convolution.
+ * Large blocks are faster (offline), small blocks have less latency (playback).
+ * @author Tobias Haider
+ */
+public class Convolver implements BlockProcessor {
+    private final int channels;
+    private final int block;            //new samples per transform
+    private final int partitions;
+    private final int bins;
+    private final float wet, dry;
+    private final FFT fft;
+    private final double[][][] irRe, irIm;      //[ir channel][partition][bin]
+    private final double[][][] fdlRe, fdlIm;    //[channel][partition][bin], transformed input blocks
+    private final double[][] input;             //[channel][2 * block], previous and current block
+    private final double[][] output;            //[channel][block], result of the previous block
+    private final double[] accRe, accIm, time;  //work arrays
+    private int fill = 0;       //frames of the current block received so far
+    private int head = 0;       //newest entry in the delay line
+
+    /**
+     * Constructor for Convolver Object
+     * @param ir impulse response per channel (one channel is used for every channel)
+     * @param channels number of channels of the processed audio
+     * @param blockSize partition size (power of 2)
+     * @param wetPercentage share of the convolved signal in percent (100 = convolved signal only)
+     */
+    public Convolver(float[][] ir, int channels, int blockSize, int wetPercentage) {
+        if(Integer.bitCount(blockSize) != 1 || blockSize < 2) {
+            throw new IllegalArgumentException("Block size needs to be a power of 2");
+        }
+        this.channels = channels;
+        this.block = blockSize;
+        this.fft = new FFT(2 * blockSize);
+        this.bins = blockSize + 1;
+        this.wet = wetPercentage / 100f;
+        this.dry = 1 - wet;
+        int length = 1;
+        for(float[] c : ir) {
+            length = Math.max(length, c.length);
+        }
+        this.partitions = (length + block - 1) / block;
+
+        irRe = new double[ir.length][partitions][bins];
+        irIm = new double[ir.length][partitions][bins];
+        double[] padded = new double[2 * block];
+        for(int c = 0; c < ir.length; c++) {
+            for(int p = 0; p < partitions; p++) {
+                Arrays.fill(padded, 0);
+                for(int i = 0; i < block && p * block + i < ir[c].length; i++) {
+                    padded[i] = ir[c][p * block + i];
+                }
+                fft.forward(padded, 0, irRe[c][p], irIm[c][p]);
+            }
+        }
+
+        fdlRe = new double[channels][partitions][bins];
+        fdlIm = new double[channels][partitions][bins];
+        input = new double[channels][2 * block];
+        output = new double[channels][block];
+        accRe = new double[bins];
+        accIm = new double[bins];
+        time = new double[2 * block];
+    }
+
+    /**
+     * Chooses a block size for offline processing: as large as the impulse response (at most 2^16),
+     * so the impulse response consists of few partitions
+     * @param irLength length of the impulse response in frames
+     * @return block size
+     */
+    public static int offlineBlockSize(int irLength) {
+        return Math.max(1024, Math.min(1 << 16, Integer.highestOneBit(Math.max(1, irLength - 1)) << 1));
+    }
+
+    /**
+     * Scales an impulse response so the strongest frequency is neither amplified nor attenuated
+     * @param ir impulse response per channel (modified in place)
+     */
+    public static void normalize(float[][] ir) {
+        int length = 2;
+        for(float[] c : ir) {
+            length = Math.max(length, c.length);
+        }
+        int n = Integer.highestOneBit(length - 1) << 2;
+        FFT fft = new FFT(Math.max(4, n));
+        double[] padded = new double[fft.size()];
+        double[] re = new double[fft.bins()];
+        double[] im = new double[fft.bins()];
+        double max = 0;
+        for(float[] c : ir) {
+            Arrays.fill(padded, 0);
+            for(int i = 0; i < c.length; i++) {
+                padded[i] = c[i];
+            }
+            fft.forward(padded, 0, re, im);
+            for(int k = 0; k < re.length; k++) {
+                max = Math.max(max, Math.hypot(re[k], im[k]));
+            }
+        }
+        if(max > 0) {
+            for(float[] c : ir) {
+                for(int i = 0; i < c.length; i++) {
+                    c[i] /= max;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return length of the impulse response covered by the partitions in frames
+     */
+    public int getLength() {
+        return partitions * block;
+    }
+
+    @Override
+    public int getLatency() {
+        return block;
+    }
+
+    @Override
+    public void process(float[][] data, int off, int frames) {
+        for(int i = off; i < off + frames; i++) {
+            for(int c = 0; c < channels; c++) {
+                float x = data[c][i];
+                double delayed = input[c][fill];    //input of the previous block, same delay as the output
+                input[c][block + fill] = x;
+                data[c][i] = (float) (wet * output[c][fill] + dry * delayed);
+            }
+            if(++fill == block) {
+                nextBlock();
+                fill = 0;
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        for(int c = 0; c < channels; c++) {
+            Arrays.fill(input[c], 0);
+            Arrays.fill(output[c], 0);
+            for(int p = 0; p < partitions; p++) {
+                Arrays.fill(fdlRe[c][p], 0);
+                Arrays.fill(fdlIm[c][p], 0);
+            }
+        }
+        fill = 0;
+        head = 0;
+    }
+
+    /**
+     * Transforms the completed input block and sums the products of all partitions with the delay line
+     */
+    private void nextBlock() {
+        head = head == 0 ? partitions - 1 : head - 1;
+        for(int c = 0; c < channels; c++) {
+            double[][] hRe = irRe[c % irRe.length];
+            double[][] hIm = irIm[c % irIm.length];
+            fft.forward(input[c], 0, fdlRe[c][head], fdlIm[c][head]);
+
+            Arrays.fill(accRe, 0);
+            Arrays.fill(accIm, 0);
+            for(int p = 0; p < partitions; p++) {
+                int d = (head + p) % partitions;    //input block p blocks ago
+                double[] xr = fdlRe[c][d], xi = fdlIm[c][d];
+                double[] hr = hRe[p], hi = hIm[p];
+                for(int k = 0; k < bins; k++) {
+                    accRe[k] += xr[k] * hr[k] - xi[k] * hi[k];
+                    accIm[k] += xr[k] * hi[k] + xi[k] * hr[k];
+                }
+            }
+            fft.inverse(accRe, accIm, time, 0);
+            System.arraycopy(time, block, output[c], 0, block);     //overlap-save: second half is valid
+
+            System.arraycopy(input[c], block, input[c], 0, block);
+        }
+    }
+}
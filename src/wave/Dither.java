@@ -0,0 +1,50 @@
+package wave;
+
+/**
+ * The Dither adds triangular (TPDF) noise of one least significant bit before float samples are quantized
+ * to an integer format. The quantization error then is noise independent of the signal instead of distortion,
+ * which matters for quiet passages and fades. Clipping is done afterwards by the SampleCodec.
+ * It should only run once, where the float data leaves the application (saving, playback).
+ * @author Tobias Haider
+ */
+public class Dither implements BlockProcessor {
+    private final float lsb;    //one step of the target format
+    private long seed = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Constructor for Dither Object
+     * @param bits sample size of the integer target format
+     */
+    public Dither(int bits) {
+        this.lsb = (float) Math.pow(2, -(bits - 1));
+    }
+
+    @Override
+    public void process(float[][] block, int off, int frames) {
+        for(float[] c : block) {
+            for(int i = off; i < off + frames; i++) {
+                c[i] += (random() - random()) * lsb;
+            }
+        }
+    }
+
+    /**
+     * Xorshift generator, much cheaper than java.util.Random for one value per sample
+     * @return uniform value in [0, 1)
+     */
+    private float random() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        return (seed >>> 40) * 0x1.0p-24f;
+    }
+
+    @Override
+    public int getLatency() {
+        return 0;
+    }
+
+    @Override
+    public void reset() {
+    }
+}
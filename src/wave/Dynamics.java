@@ -0,0 +1,150 @@
+package wave;
+
+import java.util.Arrays;
+
+/**
+ * The Dynamics processor controls the level of a signal: compressor, limiter or noise gate.
+ * The level is the peak of all channels over the lookahead window, found by a SlidingMax,
+ * so the detection costs O(1) per frame regardless of the lookahead.
+ * The signal is delayed by the lookahead, so the gain is already reduced (or the gate already open)
+ * when a peak reaches the output. The gain follows its target with separate attack and release times.
+ * The limiter additionally clips the rest of the overshoot, so its output never exceeds the ceiling.
+ * @author Tobias Haider
+ */
+public class Dynamics implements BlockProcessor {
+
+    public enum Type {COMPRESSOR, LIMITER, GATE}
+
+    private final Type type;
+    private final float threshold;      //linear level
+    private final double slope;         //1 - 1 / ratio
+    private final float down, up;       //smoothing coefficients for falling and rising gain
+    private final int lookahead;        //in frames
+    private final SlidingMax peak;
+    private final float[][] delay;      //[channel][lookahead + 1] ring buffer
+    private int index = 0;
+    private float gain = 1;
+
+    /**
+     * Constructor for Dynamics Object
+     * @param type compressor, limiter or gate
+     * @param rate sample rate in Hz
+     * @param channels number of channels
+     * @param thresholdDb threshold in dB full scale (ceiling of the limiter)
+     * @param ratio compression ratio, e.g. 4 for 4:1 (only used by the compressor)
+     * @param attackMs time to react to a peak in ms (time to open for the gate)
+     * @param releaseMs time to recover after a peak in ms (time to close for the gate)
+     * @param lookaheadMs delay of the signal in ms
+     */
+    public Dynamics(Type type, float rate, int channels, double thresholdDb, double ratio,
+                    double attackMs, double releaseMs, double lookaheadMs) {
+        this.type = type;
+        this.threshold = (float) Math.pow(10, thresholdDb / 20);
+        this.slope = type == Type.LIMITER ? 1 : 1 - 1 / Math.max(1, ratio);
+        this.lookahead = Math.max(0, (int) (lookaheadMs * rate / 1000));
+        float attack = coefficient(attackMs, rate);
+        float release = coefficient(releaseMs, rate);
+        this.down = type == Type.GATE ? release : attack;   //the gate opens with the attack time
+        this.up = type == Type.GATE ? attack : release;
+        this.peak = new SlidingMax(lookahead + 1);
+        this.delay = new float[channels][lookahead + 1];
+    }
+
+    /**
+     * Limiter reaching full reduction within the lookahead
+     * @param rate sample rate in Hz
+     * @param channels number of channels
+     * @param ceilingDb highest output level in dB full scale
+     * @return Dynamics Object
+     */
+    public static Dynamics limiter(float rate, int channels, double ceilingDb) {
+        return new Dynamics(Type.LIMITER, rate, channels, ceilingDb, 1, 1, 100, 5);
+    }
+
+    /**
+     * Compressor with settings for speech
+     * @param rate sample rate in Hz
+     * @param channels number of channels
+     * @param thresholdDb level where the compression starts in dB full scale
+     * @param ratio compression ratio above the threshold
+     * @return Dynamics Object
+     */
+    public static Dynamics compressor(float rate, int channels, double thresholdDb, double ratio) {
+        return new Dynamics(Type.COMPRESSOR, rate, channels, thresholdDb, ratio, 5, 150, 5);
+    }
+
+    /**
+     * Noise gate muting everything below the threshold
+     * @param rate sample rate in Hz
+     * @param channels number of channels
+     * @param thresholdDb level below which the gate closes in dB full scale
+     * @return Dynamics Object
+     */
+    public static Dynamics gate(float rate, int channels, double thresholdDb) {
+        return new Dynamics(Type.GATE, rate, channels, thresholdDb, 1, 1, 100, 10);
+    }
+
+    /**
+     * One pole smoothing coefficient, the gain gets 99 % of the way to its target in the given time
+     * @param ms time in ms
+     * @param rate sample rate in Hz
+     * @return coefficient (1 = immediately)
+     */
+    private static float coefficient(double ms, float rate) {
+        double frames = ms * rate / 1000;
+        return frames < 1 ? 1 : (float) (1 - Math.pow(0.01, 1 / frames));
+    }
+
+    @Override
+    public void process(float[][] block, int off, int frames) {
+        int n = lookahead + 1;
+        for(int i = off; i < off + frames; i++) {
+            float level = 0;
+            for(float[] c : block) {
+                level = Math.max(level, Math.abs(c[i]));
+            }
+            float target = target(peak.add(level));
+            gain += (target - gain) * (target < gain ? down : up);
+
+            for(int c = 0; c < block.length; c++) {     //delay the signal by the lookahead
+                float[] d = delay[c];
+                d[index] = block[c][i];
+                float out = d[index == n - 1 ? 0 : index + 1] * gain;
+                if(type == Type.LIMITER) {
+                    out = Math.max(-threshold, Math.min(threshold, out));
+                }
+                block[c][i] = out;
+            }
+            index = index == n - 1 ? 0 : index + 1;
+        }
+    }
+
+    /**
+     * @param level peak level of the window (linear)
+     * @return wanted gain for this level
+     */
+    private float target(float level) {
+        if(type == Type.GATE) {
+            return level < threshold ? 0 : 1;
+        }
+        if(level <= threshold) {
+            return 1;
+        }
+        return (float) Math.pow(threshold / level, slope);   //over the threshold by x dB, reduced by x * slope dB
+    }
+
+    @Override
+    public int getLatency() {
+        return lookahead;
+    }
+
+    @Override
+    public void reset() {
+        peak.reset();
+        for(float[] d : delay) {
+            Arrays.fill(d, 0);
+        }
+        index = 0;
+        gain = 1;
+    }
+}
@@ -0,0 +1,181 @@
+package wave;
+
+/**
+ * The FFT class implements a real valued fast fourier transform of a fixed size (power of 2).
+ * A real transform of size n is calculated with a complex transform of size n / 2.
+ * Twiddle factors, the bit reversal table and the window function are computed once in the constructor,
+ * so transforms do not allocate any memory. An FFT object is not thread safe, every thread needs its own one.
+ * @author Tobias Haider
+ */
+public class FFT {
+    private final int n;            //size of the real transform
+    private final int half;         //size of the complex transform
+    private final int[] bitReverse;
+    private final double[] cos, sin;            //twiddle factors of the complex transform
+    private final double[] realCos, realSin;    //twiddle factors splitting the complex result
+    private final double[] window;              //hann window
+    private final double[] re, im;              //work arrays
+
+    /**
+     * Constructor for FFT Object
+     * @param n size of the transform (power of 2, at least 4)
+     */
+    public FFT(int n) {
+        if(n < 4 || Integer.bitCount(n) != 1) {
+            throw new IllegalArgumentException("FFT size needs to be a power of 2");
+        }
+        this.n = n;
+        this.half = n / 2;
+        this.re = new double[half];
+        this.im = new double[half];
+
+        int bits = Integer.numberOfTrailingZeros(half);
+        bitReverse = new int[half];
+        for(int i = 0; i < half; i++) {
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        cos = new double[half / 2];
+        sin = new double[half / 2];
+        for(int i = 0; i < half / 2; i++) {
+            cos[i] = Math.cos(2 * Math.PI * i / half);
+            sin[i] = -Math.sin(2 * Math.PI * i / half);
+        }
+        realCos = new double[half + 1];
+        realSin = new double[half + 1];
+        for(int k = 0; k <= half; k++) {
+            realCos[k] = Math.cos(2 * Math.PI * k / n);
+            realSin[k] = -Math.sin(2 * Math.PI * k / n);
+        }
+        window = new double[n];
+        for(int i = 0; i < n; i++) {
+            window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / n);
+        }
+    }
+
+    /**
+     * @return size of the transform
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @return number of frequency bins (n / 2 + 1)
+     */
+    public int bins() {
+        return half + 1;
+    }
+
+    /**
+     * @return hann window of the transform size (must not be modified)
+     */
+    public double[] getWindow() {
+        return window;
+    }
+
+    /**
+     * Transforms n real values into n / 2 + 1 complex frequency bins
+     * @param in input values (n values starting at off)
+     * @param off start in input
+     * @param outRe real parts (at least n / 2 + 1 long)
+     * @param outIm imaginary parts (at least n / 2 + 1 long)
+     */
+    public void forward(double[] in, int off, double[] outRe, double[] outIm) {
+        for(int k = 0; k < half; k++) {     //even values as real part, odd values as imaginary part
+            re[k] = in[off + 2 * k];
+            im[k] = in[off + 2 * k + 1];
+        }
+        complex(re, im, false);
+        for(int k = 0; k <= half; k++) {
+            int a = k == half ? 0 : k;
+            int b = k == 0 ? 0 : half - k;
+            double evenRe = (re[a] + re[b]) / 2;        //spectrum of the even values
+            double evenIm = (im[a] - im[b]) / 2;
+            double oddRe = (im[a] + im[b]) / 2;         //spectrum of the odd values
+            double oddIm = -(re[a] - re[b]) / 2;
+            outRe[k] = evenRe + oddRe * realCos[k] - oddIm * realSin[k];
+            outIm[k] = evenIm + oddRe * realSin[k] + oddIm * realCos[k];
+        }
+    }
+
+    /**
+     * Transforms n / 2 + 1 complex frequency bins back into n real values (inverse of forward)
+     * @param inRe real parts
+     * @param inIm imaginary parts
+     * @param out output values (n values starting at off)
+     * @param off start in output
+     */
+    public void inverse(double[] inRe, double[] inIm, double[] out, int off) {
+        for(int k = 0; k < half; k++) {
+            double evenRe = (inRe[k] + inRe[half - k]) / 2;
+            double evenIm = (inIm[k] - inIm[half - k]) / 2;
+            double dRe = (inRe[k] - inRe[half - k]) / 2;
+            double dIm = (inIm[k] + inIm[half - k]) / 2;
+            double oddRe = dRe * realCos[k] + dIm * realSin[k];     //multiply with conjugated twiddle
+            double oddIm = dIm * realCos[k] - dRe * realSin[k];
+            re[k] = evenRe - oddIm;
+            im[k] = evenIm + oddRe;
+        }
+        complex(re, im, true);
+        for(int k = 0; k < half; k++) {
+            out[off + 2 * k] = re[k] / half;
+            out[off + 2 * k + 1] = im[k] / half;
+        }
+    }
+
+    /**
+     * Calculates the power spectrum of windowed input values
+     * @param in input values (n values starting at off)
+     * @param off start in input
+     * @param power squared magnitudes (at least n / 2 + 1 long)
+     * @param scratch work array (at least n long)
+     */
+    public void power(double[] in, int off, double[] power, double[] scratch) {
+        for(int i = 0; i < n; i++) {
+            scratch[i] = in[off + i] * window[i];
+        }
+        forward(scratch, 0, power, scratch);    //imaginary parts overwrite the scratch values already read
+        for(int k = 0; k <= half; k++) {
+            power[k] = power[k] * power[k] + scratch[k] * scratch[k];
+        }
+    }
+
+    /**
+     * Iterative radix 2 complex transform of size n / 2 (in place)
+     * @param re real parts
+     * @param im imaginary parts
+     * @param inverse true for the inverse transform (not scaled)
+     */
+    private void complex(double[] re, double[] im, boolean inverse) {
+        for(int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            if(j > i) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        double sign = inverse ? -1 : 1;
+        for(int size = 2; size <= half; size <<= 1) {
+            int step = half / size;
+            int h = size >> 1;
+            for(int start = 0; start < half; start += size) {
+                for(int k = 0; k < h; k++) {
+                    double wr = cos[k * step];
+                    double wi = sign * sin[k * step];
+                    int a = start + k;
+                    int b = a + h;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package wave;
+
+import mod.Track;
+
+import java.util.Arrays;
+
+/**
+ * The Fingerprint class is a compact acoustic fingerprint of a Track, made of hashes of spectral peak pairs.
+ * The Track is mixed to mono and resampled to RATE, so copies with another sample rate, gain or encoding still match.
+ * The strongest peak of a frequency band is a landmark if it rises above the decaying threshold of the band
+ * (mostly note onsets, steady tones do not produce new landmarks). Every landmark is paired with the next landmarks
+ * in a small time window and each pair (frequency, frequency, time difference) is hashed to an int.
+ * A hash does not depend on the position in the Track, so a trimmed copy or a clip produces the same hashes,
+ * only shifted in time (see FingerprintIndex).
+ * The Track is read once in blocks, it is never copied as a whole.
+ * @author Tobias Haider
+ */
+public class Fingerprint {
+    public static final int RATE = 11025;           //sample rate of the analysis
+    public static final int HOP = 512;              //samples between two spectra
+    private static final int FFT_SIZE = 1024;
+    private static final int[] BANDS = {8, 16, 32, 64, 128, 256, 513};   //band limits in bins, one landmark per band
+    private static final int FAN_OUT = 5;           //pairs per landmark
+    private static final int MAX_DT = 63;           //largest time difference of a pair in hops (6 bit)
+    private static final double COMPRESSION = 100;  //log(1 + COMPRESSION * magnitude)
+    private static final double DECAY = 0.97;       //decay of the threshold of a band per hop
+
+    private final int[] hashes;     //hash of every pair
+    private final int[] times;      //hop of the first landmark of every pair, ascending
+
+    /**
+     * Constructor for Fingerprint Object
+     * @param hashes hash of every pair
+     * @param times hop of every pair
+     */
+    public Fingerprint(int[] hashes, int[] times) {
+        this.hashes = hashes;
+        this.times = times;
+    }
+
+    /**
+     * Calculates the fingerprint of a Track in one streaming pass
+     * @param t Track to analyze
+     * @return Fingerprint of the Track
+     */
+    public static Fingerprint analyze(Track t) {
+        SampleCodec codec = SampleCodec.forFormat(t.getFormat());
+        int frameSize = codec.getFrameSize();
+        int blockFrames = 8192;
+        byte[] bytes = new byte[blockFrames * frameSize];
+        float[][] block = new float[codec.getChannels()][blockFrames];
+        float[][] mono = new float[1][blockFrames];
+        int inRate = Math.round(t.getFormat().getSampleRate());
+        Resampler resampler = inRate == RATE ? null : new Resampler(inRate, RATE, 1);
+        float[][] resampled = new float[1][resampler == null ? blockFrames : Math.max(blockFrames, resampler.maxOutput(blockFrames))];
+        Landmarks landmarks = new Landmarks();
+
+        long frame = 0;
+        int read;
+        while((read = t.read(frame * frameSize, bytes, 0, bytes.length)) > 0) {
+            int n = read / frameSize;
+            codec.decode(bytes, 0, block, 0, n);
+            for(int i = 0; i < n; i++) {
+                float sum = 0;
+                for(float[] c : block) {
+                    sum += c[i];
+                }
+                mono[0][i] = sum / block.length;
+            }
+            if(resampler == null) {
+                landmarks.add(mono[0], n);
+            } else {
+                landmarks.add(resampled[0], resampler.process(mono, 0, n, resampled, 0));
+            }
+            frame += n;
+        }
+        if(resampler != null) {
+            landmarks.add(resampled[0], resampler.flush(resampled, 0));
+        }
+        return landmarks.pairs();
+    }
+
+    /**
+     * Collects the landmarks of the resampled signal, one spectrum every HOP samples.
+     */
+    private static class Landmarks {
+        private final FFT fft = new FFT(FFT_SIZE);
+        private final double[] window = new double[FFT_SIZE];   //last FFT_SIZE samples
+        private final double[] power = new double[fft.bins()];
+        private final double[] scratch = new double[FFT_SIZE];
+        private final double[] threshold = new double[BANDS.length - 1];  //decaying threshold of every band
+        private int fill = 0;       //samples in window
+        private int hop = 0;        //number of spectra so far
+        private int[] peakTimes = new int[256];
+        private short[] peakBins = new short[256];
+        private int count = 0;
+
+        /**
+         * @param samples resampled mono samples
+         * @param n number of samples
+         */
+        private void add(float[] samples, int n) {
+            for(int i = 0; i < n; i++) {
+                window[fill++] = samples[i];
+                if(fill == FFT_SIZE) {
+                    spectrum();
+                    System.arraycopy(window, HOP, window, 0, FFT_SIZE - HOP);
+                    fill = FFT_SIZE - HOP;
+                }
+            }
+        }
+
+        /**
+         * Finds the strongest bin of every band. It is a landmark if it is above the threshold of the band
+         * and above the average band of the spectrum.
+         */
+        private void spectrum() {
+            fft.power(window, 0, power, scratch);
+            double[] level = new double[BANDS.length - 1];
+            int[] bin = new int[BANDS.length - 1];
+            double mean = 0;
+            for(int b = 0; b < level.length; b++) {
+                for(int k = BANDS[b]; k < BANDS[b + 1]; k++) {
+                    double v = Math.log1p(COMPRESSION * Math.sqrt(power[k]) / FFT_SIZE);
+                    if(v > level[b]) {
+                        level[b] = v;
+                        bin[b] = k;
+                    }
+                }
+                mean += level[b] / level.length;
+            }
+            for(int b = 0; b < level.length; b++) {
+                boolean landmark = level[b] > threshold[b] && level[b] > mean && level[b] > 0.01;  //also skips silence
+                threshold[b] = Math.max(threshold[b] * DECAY, level[b]);
+                if(landmark) {
+                    if(count == peakTimes.length) {
+                        peakTimes = Arrays.copyOf(peakTimes, 2 * count);
+                        peakBins = Arrays.copyOf(peakBins, 2 * count);
+                    }
+                    peakTimes[count] = hop;
+                    peakBins[count++] = (short) bin[b];
+                }
+            }
+            hop++;
+        }
+
+        /**
+         * Pairs every landmark with the next FAN_OUT landmarks of later spectra within MAX_DT hops
+         * @return Fingerprint of all pairs
+         */
+        private Fingerprint pairs() {
+            int[] hashes = new int[count * FAN_OUT];
+            int[] times = new int[count * FAN_OUT];
+            int n = 0;
+            for(int i = 0; i < count; i++) {
+                int paired = 0;
+                for(int j = i + 1; j < count && paired < FAN_OUT; j++) {
+                    int dt = peakTimes[j] - peakTimes[i];
+                    if(dt > MAX_DT) {
+                        break;
+                    }
+                    if(dt > 0) {
+                        hashes[n] = hash(peakBins[i], peakBins[j], dt);
+                        times[n++] = peakTimes[i];
+                        paired++;
+                    }
+                }
+            }
+            return new Fingerprint(Arrays.copyOf(hashes, n), Arrays.copyOf(times, n));
+        }
+    }
+
+    /**
+     * @param f1 bin of the first landmark (10 bit)
+     * @param f2 bin of the second landmark (10 bit)
+     * @param dt time difference in hops (6 bit)
+     * @return hash of the pair
+     */
+    private static int hash(int f1, int f2, int dt) {
+        return f1 << 16 | f2 << 6 | dt;
+    }
+
+    /**
+     * @return number of hashes
+     */
+    public int size() {
+        return hashes.length;
+    }
+
+    /**
+     * @param i index of the hash
+     * @return hash of a landmark pair
+     */
+    public int getHash(int i) {
+        return hashes[i];
+    }
+
+    /**
+     * @param i index of the hash
+     * @return position of the pair in hops (HOP samples at RATE)
+     */
+    public int getTime(int i) {
+        return times[i];
+    }
+
+    /**
+     * @param hops time in hops
+     * @return time in seconds
+     */
+    public static double toSeconds(int hops) {
+        return hops * (double) HOP / RATE;
+    }
+}
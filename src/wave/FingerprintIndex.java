@@ -0,0 +1,286 @@
+package wave;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The FingerprintIndex class is an inverted index from fingerprint hashes to the Tracks containing them.
+ * Every hash has a posting list of longs (Track id in the upper, time in the lower 32 bits), the hashes are
+ * kept in an open addressing table of ints, so no boxing is needed.
+ * A query looks up the postings of its hashes and counts how often every Track matches with the same time offset.
+ * Copies and clips of a Track match many hashes at one offset, unrelated Tracks only a few at random offsets,
+ * so there is no pairwise comparison of Tracks.
+ * The index can be used by many threads, queries share a read lock.
+ * @author Tobias Haider
+ */
+public class FingerprintIndex {
+    private static final int EMPTY = -1;            //no hash uses the sign bit
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, Fingerprint> tracks = new HashMap<>();  //id -> fingerprint, needed for removal
+    private int[] keys = new int[1024];             //hash of every slot, EMPTY if unused
+    private long[][] postings = new long[1024][];   //posting list of every slot
+    private int[] sizes = new int[1024];            //used length of every posting list
+    private int used = 0;                           //used slots
+
+    /**
+     * A Track matching a query.
+     */
+    public static class Match {
+        private final int id;
+        private final int offset;
+        private final int score;
+
+        private Match(int id, int offset, int score) {
+            this.id = id;
+            this.offset = offset;
+            this.score = score;
+        }
+
+        /**
+         * @return id of the matching Track
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return position of the query in the matching Track in seconds (negative if the query starts earlier)
+         */
+        public double getOffset() {
+            return Fingerprint.toSeconds(offset);
+        }
+
+        /**
+         * @return number of hashes matching at this offset
+         */
+        public int getScore() {
+            return score;
+        }
+    }
+
+    public FingerprintIndex() {
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Adds the fingerprint of a Track, an older fingerprint of the same id is replaced
+     * @param id id of the Track
+     * @param fp fingerprint of the Track
+     */
+    public void add(int id, Fingerprint fp) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            tracks.put(id, fp);
+            for(int i = 0; i < fp.size(); i++) {
+                int slot = slot(fp.getHash(i), true);
+                long[] list = postings[slot];
+                if(sizes[slot] == list.length) {
+                    list = postings[slot] = Arrays.copyOf(list, 2 * list.length);
+                }
+                list[sizes[slot]++] = (long) id << 32 | (fp.getTime(i) & 0xFFFFFFFFL);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the fingerprint of a Track
+     * @param id id of the Track
+     */
+    public void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeLocked(int id) {
+        Fingerprint fp = tracks.remove(id);
+        if(fp == null) {
+            return;
+        }
+        for(int i = 0; i < fp.size(); i++) {
+            int slot = slot(fp.getHash(i), false);
+            if(slot < 0) {
+                continue;
+            }
+            long[] list = postings[slot];
+            int n = 0;
+            for(int j = 0; j < sizes[slot]; j++) {
+                if((int) (list[j] >>> 32) != id) {
+                    list[n++] = list[j];
+                }
+            }
+            sizes[slot] = n;    //empty slots stay, the hash probably comes again
+        }
+    }
+
+    /**
+     * @return number of indexed Tracks
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return tracks.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param id id of a Track
+     * @return indexed fingerprint of the Track, null if it is not indexed
+     */
+    public Fingerprint get(int id) {
+        lock.readLock().lock();
+        try {
+            return tracks.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the Tracks which contain the query
+     * @param query fingerprint of a Track or a clip
+     * @param exclude id which is not reported (the query itself), -1 for none
+     * @param minScore least number of hashes matching at one offset
+     * @return best offset of every matching Track, highest score first
+     */
+    public List<Match> query(Fingerprint query, int exclude, int minScore) {
+        long[] votes = new long[1024];      //Track id and offset of every matching hash
+        int n = 0;
+        lock.readLock().lock();
+        try {
+            for(int i = 0; i < query.size(); i++) {
+                int slot = slot(query.getHash(i), false);
+                if(slot < 0) {
+                    continue;
+                }
+                long[] list = postings[slot];
+                for(int j = 0; j < sizes[slot]; j++) {
+                    int id = (int) (list[j] >>> 32);
+                    if(id == exclude) {
+                        continue;
+                    }
+                    if(n == votes.length) {
+                        votes = Arrays.copyOf(votes, 2 * n);
+                    }
+                    long offset = (int) list[j] - query.getTime(i) + (long) Integer.MAX_VALUE;  //positive
+                    votes[n++] = (long) id << 32 | offset;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return count(votes, n, minScore);
+    }
+
+    /**
+     * Counts the votes per Track and offset. Neighbouring offsets are counted together, the hop grid of a trimmed copy
+     * is shifted by a fraction of a hop, so its landmarks fall on two offsets.
+     * @param votes Track id and offset of every matching hash
+     * @param n number of votes
+     * @param minScore least score
+     * @return best offset of every Track with at least minScore, highest score first
+     */
+    private static List<Match> count(long[] votes, int n, int minScore) {
+        Arrays.sort(votes, 0, n);
+        List<Match> matches = new ArrayList<>();
+        int bestScore = 0, bestOffset = 0;
+        long previousKey = -2;
+        int previousCount = 0;
+        for(int i = 0; i < n; ) {
+            int j = i;
+            while(j < n && votes[j] == votes[i]) {
+                j++;
+            }
+            int id = (int) (votes[i] >>> 32);
+            int offset = (int) ((votes[i] & 0xFFFFFFFFL) - Integer.MAX_VALUE);
+            int score = (j - i) + (votes[i] == previousKey + 1 ? previousCount : 0);
+            if(score > bestScore) {
+                bestScore = score;
+                bestOffset = offset;
+            }
+            previousKey = votes[i];
+            previousCount = j - i;
+            i = j;
+            if(i == n || (int) (votes[i] >>> 32) != id) {   //last offset of this Track
+                if(bestScore >= minScore) {
+                    matches.add(new Match(id, bestOffset, bestScore));
+                }
+                bestScore = 0;
+            }
+        }
+        matches.sort((a, b) -> Integer.compare(b.score, a.score));
+        return matches;
+    }
+
+    /**
+     * Finds the slot of a hash (linear probing)
+     * @param hash hash
+     * @param create true to add the hash if it is missing
+     * @return slot, -1 if the hash is missing and create is false
+     */
+    private int slot(int hash, boolean create) {
+        int mask = keys.length - 1;
+        int slot = mix(hash) & mask;
+        while(keys[slot] != EMPTY) {
+            if(keys[slot] == hash) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if(!create) {
+            return -1;
+        }
+        if(2 * (used + 1) > keys.length) {  //load factor 0.5
+            grow();
+            return slot(hash, true);
+        }
+        keys[slot] = hash;
+        postings[slot] = new long[4];
+        used++;
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[][] oldPostings = postings;
+        int[] oldSizes = sizes;
+        keys = new int[2 * oldKeys.length];
+        postings = new long[keys.length][];
+        sizes = new int[keys.length];
+        Arrays.fill(keys, EMPTY);
+        int mask = keys.length - 1;
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldKeys[i] != EMPTY) {
+                int slot = mix(oldKeys[i]) & mask;
+                while(keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                postings[slot] = oldPostings[i];
+                sizes[slot] = oldSizes[i];
+            }
+        }
+    }
+
+    /**
+     * Spreads the bits of a hash, the low bits of a fingerprint hash are only the time difference
+     */
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
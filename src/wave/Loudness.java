@@ -0,0 +1,282 @@
+package wave;
+
+import mod.Track;
+
+import java.util.Arrays;
+
+/**
+ * The Loudness class holds the result of a loudness analysis:
+ * sample peak, true peak (4 times oversampled), RMS and the EBU R128 integrated loudness.
+ * The analysis is done in a single streaming pass by the Analyzer, so a Track never has to be copied.
+ * @author Tobias Haider
+ */
+public class Loudness {
+    private final double peak;          //highest absolute sample value (1.0 = full scale)
+    private final double truePeak;      //highest absolute value of the oversampled signal
+    private final double rms;           //root mean square of all samples
+    private final double integrated;    //integrated loudness in LUFS
+
+    private Loudness(double peak, double truePeak, double rms, double integrated) {
+        this.peak = peak;
+        this.truePeak = truePeak;
+        this.rms = rms;
+        this.integrated = integrated;
+    }
+
+    /**
+     * Analyzes a Track chunk by chunk
+     * @param t Track to analyze
+     * @return Loudness of the Track
+     */
+    public static Loudness analyze(Track t) {
+        SampleCodec codec = SampleCodec.forFormat(t.getFormat());
+        Analyzer analyzer = new Analyzer((int) t.getFormat().getSampleRate(), codec.getChannels());
+        int blockFrames = 8192;
+        byte[] buffer = new byte[blockFrames * codec.getFrameSize()];
+        float[][] block = new float[codec.getChannels()][blockFrames];
+        long pos = 0;
+        int read;
+        while((read = t.read(pos, buffer, 0, buffer.length)) > 0) {
+            int frames = read / codec.getFrameSize();
+            codec.decode(buffer, 0, block, 0, frames);
+            analyzer.process(block, 0, frames);
+            pos += read;
+        }
+        return analyzer.result();
+    }
+
+    /**
+     * Returns the loudness of the same audio data multiplied by a constant factor (without clipping)
+     * @param gain linear factor
+     * @return scaled Loudness
+     */
+    public Loudness scale(double gain) {
+        return new Loudness(peak * gain, truePeak * gain, rms * gain, integrated + toDb(gain));
+    }
+
+    //getter
+    public double getPeak() {
+        return peak;
+    }
+
+    public double getTruePeak() {
+        return truePeak;
+    }
+
+    public double getRms() {
+        return rms;
+    }
+
+    public double getPeakDb() {
+        return toDb(peak);
+    }
+
+    public double getTruePeakDb() {
+        return toDb(truePeak);
+    }
+
+    public double getRmsDb() {
+        return toDb(rms);
+    }
+
+    /**
+     * @return integrated loudness in LUFS (negative infinity for silence)
+     */
+    public double getIntegrated() {
+        return integrated;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("peak %.1f dBFS, true peak %.1f dBTP, RMS %.1f dBFS, %.1f LUFS",
+                getPeakDb(), getTruePeakDb(), getRmsDb(), integrated);
+    }
+
+    /**
+     * Converts a linear factor to decibel
+     * @param value linear value
+     * @return value in dB
+     */
+    static double toDb(double value) {
+        return 20 * Math.log10(value);
+    }
+
+    /**
+     * Streaming analyzer. Audio data can be passed in blocks of any size.
+     * The K-weighting filter and the 400 ms gating blocks (75 % overlap) follow ITU-R BS.1770 / EBU R128.
+     */
+    public static class Analyzer {
+        private static final int PHASES = 4;    //oversampling factor for the true peak
+        private static final int TAPS = 12;     //filter taps per phase
+        private static final double[][] INTERPOLATION = interpolationFilter();
+
+        private final int channels;
+        private final int subBlock;             //frames per 100 ms
+        private final double[] b, a;            //coefficients of the two K-weighting biquads (b0 b1 b2 for each)
+        private final double[][] state;         //filter state per channel
+        private final double[][] history;       //last TAPS samples per channel for the true peak
+        private int historyPos = 0;
+
+        private double peak = 0, truePeak = 0;
+        private double sumSquares = 0;
+        private long samples = 0;
+        private double subBlockSum = 0;         //sum of weighted squares of the current 100 ms
+        private int subBlockFrames = 0;
+        private double[] powers = new double[64];   //mean square of every finished 100 ms sub block
+        private int count = 0;
+
+        /**
+         * @param rate sample rate in Hz
+         * @param channels number of channels
+         */
+        public Analyzer(int rate, int channels) {
+            this.channels = channels;
+            this.subBlock = Math.max(1, rate / 10);
+            this.state = new double[channels][4];
+            this.history = new double[channels][TAPS];
+
+            //stage 1: high shelf (head effects)
+            double k = Math.tan(Math.PI * 1681.974450955533 / rate);
+            double vh = Math.pow(10, 3.999843853973347 / 20);
+            double vb = Math.pow(vh, 0.4996667741545416);
+            double q = 0.7071752369554196;
+            double a0 = 1 + k / q + k * k;
+            //stage 2: high pass (RLB weighting)
+            double k2 = Math.tan(Math.PI * 38.13547087602444 / rate);
+            double q2 = 0.5003270373238773;
+            double a02 = 1 + k2 / q2 + k2 * k2;
+
+            b = new double[] {(vh + vb * k / q + k * k) / a0, 2 * (k * k - vh) / a0, (vh - vb * k / q + k * k) / a0,
+                    1, -2, 1};
+            a = new double[] {2 * (k * k - 1) / a0, (1 - k / q + k * k) / a0,
+                    2 * (k2 * k2 - 1) / a02, (1 - k2 / q2 + k2 * k2) / a02};
+        }
+
+        /**
+         * Processes a block of audio data
+         * @param block samples per channel
+         * @param off first frame
+         * @param frames number of frames
+         */
+        public void process(float[][] block, int off, int frames) {
+            for(int i = off; i < off + frames; i++) {
+                double weighted = 0;
+                for(int c = 0; c < channels; c++) {
+                    double x = block[c][i];
+                    double abs = Math.abs(x);
+                    if(abs > peak) {
+                        peak = abs;
+                    }
+                    sumSquares += x * x;
+
+                    double[] h = history[c];
+                    h[historyPos] = x;
+                    truePeak(h);
+
+                    double[] s = state[c];  //two biquads in direct form 2 transposed
+                    double y1 = b[0] * x + s[0];
+                    s[0] = b[1] * x - a[0] * y1 + s[1];
+                    s[1] = b[2] * x - a[1] * y1;
+                    double y2 = b[3] * y1 + s[2];
+                    s[2] = b[4] * y1 - a[2] * y2 + s[3];
+                    s[3] = b[5] * y1 - a[3] * y2;
+                    weighted += y2 * y2;
+                }
+                historyPos = (historyPos + 1) % TAPS;
+                samples += channels;
+
+                subBlockSum += weighted;
+                if(++subBlockFrames == subBlock) {
+                    if(count == powers.length) {
+                        powers = Arrays.copyOf(powers, count * 2);
+                    }
+                    powers[count++] = subBlockSum / subBlock;
+                    subBlockSum = 0;
+                    subBlockFrames = 0;
+                }
+            }
+        }
+
+        /**
+         * Interpolates the samples between the newest sample and the one before
+         * @param h sample history of one channel (ring buffer, newest at historyPos)
+         */
+        private void truePeak(double[] h) {
+            for(int p = 1; p < PHASES; p++) {
+                double[] f = INTERPOLATION[p];
+                double sum = 0;
+                int idx = historyPos;
+                for(int t = 0; t < TAPS; t++) {
+                    sum += f[t] * h[idx];
+                    idx = idx == 0 ? TAPS - 1 : idx - 1;
+                }
+                double abs = Math.abs(sum);
+                if(abs > truePeak) {
+                    truePeak = abs;
+                }
+            }
+        }
+
+        /**
+         * Finishes the analysis (can be called multiple times)
+         * @return Loudness of all data passed so far
+         */
+        public Loudness result() {
+            double rms = samples == 0 ? 0 : Math.sqrt(sumSquares / samples);
+            return new Loudness(peak, Math.max(peak, truePeak), rms, integrated());
+        }
+
+        /**
+         * Gated integrated loudness
+         * @return loudness in LUFS
+         */
+        private double integrated() {
+            int blocks = count - 3;         //every 400 ms block consists of 4 sub blocks
+            if(blocks <= 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            double[] z = new double[blocks];
+            double absoluteGate = Math.pow(10, (-70 + 0.691) / 10);
+            double sum = 0;
+            int n = 0;
+            for(int i = 0; i < blocks; i++) {
+                z[i] = (powers[i] + powers[i + 1] + powers[i + 2] + powers[i + 3]) / 4;
+                if(z[i] > absoluteGate) {
+                    sum += z[i];
+                    n++;
+                }
+            }
+            if(n == 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            double relativeGate = sum / n * Math.pow(10, -10 / 10.0);
+            double gate = Math.max(absoluteGate, relativeGate);
+            sum = 0;
+            n = 0;
+            for(double v : z) {
+                if(v > gate) {
+                    sum += v;
+                    n++;
+                }
+            }
+            return n == 0 ? Double.NEGATIVE_INFINITY : -0.691 + 10 * Math.log10(sum / n);
+        }
+
+        /**
+         * Windowed sinc filter split into PHASES polyphase components
+         * @return filter coefficients [phase][tap]
+         */
+        private static double[][] interpolationFilter() {
+            double[][] f = new double[PHASES][TAPS];
+            for(int p = 0; p < PHASES; p++) {
+                for(int t = 0; t < TAPS; t++) {
+                    double x = t - (TAPS / 2 - 1) - (double) p / PHASES;    //distance to the interpolated point
+                    double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+                    double window = 0.5 + 0.5 * Math.cos(Math.PI * x / (TAPS / 2));     //hann window centered on the point
+                    f[p][t] = sinc * window;
+                }
+            }
+            return f;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package wave;
+
+import mod.Track;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The Onsets class is a sorted index of the transients (note and word onsets) of a Track.
+ * Onsets are peaks of the spectral flux: the increase of the log magnitude spectrum from one hop to the next.
+ * The flux of every hop only depends on two spectra, so the Track is split into segments analyzed in parallel,
+ * only the peak picking runs over the whole flux curve afterwards.
+ * The index is a primitive long[] of frame positions, nearest finds the closest onset in O(log n).
+ * @author Tobias Haider
+ */
+public class Onsets {
+    private static final int FFT_SIZE = 1024;
+    private static final int HOP = 256;             //frames between two spectra
+    private static final int SEGMENT_HOPS = 4096;   //hops per parallel task
+    private static final int PEAK_RADIUS = 4;       //an onset is the maximum of this many hops on both sides
+    private static final int MEAN_RADIUS = 32;      //hops of the local mean used as adaptive threshold
+    private static final double MEAN_FACTOR = 1.5;  //flux needs to exceed the local mean by this factor
+    private static final double COMPRESSION = 100;  //log(1 + COMPRESSION * magnitude), makes quiet onsets count
+
+    private final long[] frames;    //sorted onset positions in frames
+
+    private Onsets(long[] frames) {
+        this.frames = frames;
+    }
+
+    /**
+     * Analyzes a Track, segments are processed on the common ForkJoinPool
+     * @param t Track to analyze
+     * @return Onsets of the Track
+     */
+    public static Onsets analyze(Track t) {
+        long hops = t.getFrames() / HOP + 1;
+        if(hops > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Track is too long for the onset detection");
+        }
+        float[] flux = new float[(int) hops];
+        int segments = (flux.length + SEGMENT_HOPS - 1) / SEGMENT_HOPS;
+        IntStream.range(0, segments).parallel().forEach(s ->
+                flux(t, s * SEGMENT_HOPS, Math.min(flux.length, (s + 1) * SEGMENT_HOPS), flux));
+        return new Onsets(pick(flux));
+    }
+
+    /**
+     * Calculates the spectral flux of a range of hops
+     * @param t Track
+     * @param from first hop
+     * @param to end hop (exclusive)
+     * @param flux result for every hop
+     */
+    private static void flux(Track t, int from, int to, float[] flux) {
+        SampleCodec codec = SampleCodec.forFormat(t.getFormat());
+        int frameSize = codec.getFrameSize();
+        FFT fft = new FFT(FFT_SIZE);
+        byte[] bytes = new byte[FFT_SIZE * frameSize];
+        float[][] block = new float[codec.getChannels()][FFT_SIZE];
+        double[] samples = new double[FFT_SIZE];
+        double[] scratch = new double[FFT_SIZE];
+        double[] power = new double[fft.bins()];
+        double[] previous = new double[fft.bins()];
+        double[] current = new double[fft.bins()];
+
+        for(int h = Math.max(0, from - 1); h < to; h++) {   //the hop before the range is needed for the difference
+            int read = Math.max(0, t.read((long) h * HOP * frameSize, bytes, 0, bytes.length));
+            int n = read / frameSize;
+            codec.decode(bytes, 0, block, 0, n);
+            for(int i = 0; i < FFT_SIZE; i++) {
+                double sum = 0;
+                if(i < n) {
+                    for(float[] c : block) {
+                        sum += c[i];
+                    }
+                }
+                samples[i] = sum / block.length;
+            }
+            fft.power(samples, 0, power, scratch);
+            double sum = 0;
+            for(int k = 0; k < power.length; k++) {
+                current[k] = Math.log1p(COMPRESSION * Math.sqrt(power[k]) / FFT_SIZE);
+                sum += Math.max(0, current[k] - previous[k]);   //only rising energy is an onset
+            }
+            if(h >= from) {
+                flux[h] = (float) sum;
+            }
+            double[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+    }
+
+    /**
+     * Peak picking: a hop is an onset if its flux is the local maximum and above the adaptive threshold
+     * @param flux spectral flux per hop
+     * @return onset positions in frames
+     */
+    private static long[] pick(float[] flux) {
+        double[] prefix = new double[flux.length + 1];  //prefix sums, every local mean costs O(1)
+        for(int h = 0; h < flux.length; h++) {
+            prefix[h + 1] = prefix[h] + flux[h];
+        }
+        double floor = prefix[flux.length] / Math.max(1, flux.length) * 0.1;  //ignore tiny changes in silence
+        long[] result = new long[16];
+        int count = 0;
+        for(int h = 1; h < flux.length; h++) {
+            float f = flux[h];
+            int lo = Math.max(0, h - MEAN_RADIUS);
+            int hi = Math.min(flux.length, h + MEAN_RADIUS + 1);
+            double mean = (prefix[hi] - prefix[lo]) / (hi - lo);
+            if(f <= floor || f < MEAN_FACTOR * mean || !isMaximum(flux, h)) {
+                continue;
+            }
+            if(count == result.length) {
+                result = Arrays.copyOf(result, 2 * count);
+            }
+            //the flux peaks when the attack reaches the center of the window, the position is slightly before
+            //the attack, so a cut there keeps it
+            result[count++] = (long) h * HOP + FFT_SIZE / 2;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static boolean isMaximum(float[] flux, int h) {
+        for(int i = Math.max(0, h - PEAK_RADIUS); i < Math.min(flux.length, h + PEAK_RADIUS + 1); i++) {
+            if(flux[i] > flux[h] || (flux[i] == flux[h] && i < h)) {    //equal values: the first one wins
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the onset closest to a position (binary search)
+     * @param frame position in frames
+     * @param maxDistance largest distance in frames
+     * @return closest onset, frame itself if no onset is closer than maxDistance
+     */
+    public long nearest(long frame, long maxDistance) {
+        int i = Arrays.binarySearch(frames, frame);
+        if(i >= 0) {
+            return frame;
+        }
+        i = -i - 1;     //first onset after frame
+        long best = frame;
+        long distance = maxDistance + 1;
+        if(i < frames.length && frames[i] - frame < distance) {
+            best = frames[i];
+            distance = frames[i] - frame;
+        }
+        if(i > 0 && frame - frames[i - 1] < distance) {
+            best = frames[i - 1];
+        }
+        return best;
+    }
+
+    /**
+     * Finds the zero crossing of the mono signal closest to a position, cuts there do not click
+     * @param t Track
+     * @param frame position in frames
+     * @param radius frames searched on both sides
+     * @return first frame after the closest sign change, frame itself if there is none
+     */
+    public static long zeroCrossing(Track t, long frame, int radius) {
+        SampleCodec codec = SampleCodec.forFormat(t.getFormat());
+        int frameSize = codec.getFrameSize();
+        long start = Math.max(0, frame - radius);
+        int n = (int) Math.max(0, Math.min(t.getFrames(), frame + radius + 1) - start);
+        byte[] bytes = new byte[n * frameSize];
+        float[][] block = new float[codec.getChannels()][n];
+        codec.decode(bytes, 0, block, 0, t.read(start * frameSize, bytes, 0, bytes.length) / frameSize);
+        long best = frame;
+        long distance = radius + 1;
+        float previous = 0;
+        for(int i = 0; i < n; i++) {
+            float sum = 0;
+            for(float[] c : block) {
+                sum += c[i];
+            }
+            if(i > 0 && (previous < 0) != (sum < 0) && Math.abs(start + i - frame) < distance) {
+                best = start + i;
+                distance = Math.abs(best - frame);
+            }
+            previous = sum;
+        }
+        return best;
+    }
+
+    /**
+     * @return number of onsets
+     */
+    public int size() {
+        return frames.length;
+    }
+
+    /**
+     * @param i index of the onset
+     * @return position of the onset in frames
+     */
+    public long get(int i) {
+        return frames[i];
+    }
+}
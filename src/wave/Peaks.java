@@ -0,0 +1,72 @@
+package wave;
+
+import mod.Track;
+
+/**
+ * The Peaks class is a small overview of a Track: the highest absolute sample value of every column and channel.
+ * It is enough to draw a waveform, so a project can show its Tracks before any audio is rendered.
+ * @author Tobias Haider
+ */
+public class Peaks {
+    public static final int COLUMNS = 2048;     //columns of an overview
+
+    private final float[][] peaks;      //[channel][column], 1.0 = full scale
+
+    /**
+     * Constructor for Peaks Object
+     * @param peaks highest absolute value per channel and column (not copied)
+     */
+    public Peaks(float[][] peaks) {
+        this.peaks = peaks;
+    }
+
+    /**
+     * Analyzes a Track in one streaming pass
+     * @param t Track to analyze
+     * @param columns number of columns
+     * @return Peaks of the Track
+     */
+    public static Peaks analyze(Track t, int columns) {
+        SampleCodec codec = SampleCodec.forFormat(t.getFormat());
+        int frameSize = codec.getFrameSize();
+        long frames = Math.max(1, t.getFrames());
+        float[][] peaks = new float[codec.getChannels()][columns];
+        int blockFrames = 8192;
+        byte[] buffer = new byte[blockFrames * frameSize];
+        float[][] block = new float[codec.getChannels()][blockFrames];
+        long frame = 0;
+        int read;
+        while((read = t.read(frame * frameSize, buffer, 0, buffer.length)) > 0) {
+            int n = read / frameSize;
+            codec.decode(buffer, 0, block, 0, n);
+            for(int c = 0; c < block.length; c++) {
+                float[] x = block[c];
+                float[] p = peaks[c];
+                for(int i = 0; i < n; i++) {
+                    int column = (int) ((frame + i) * columns / frames);
+                    p[column] = Math.max(p[column], Math.abs(x[i]));
+                }
+            }
+            frame += n;
+        }
+        return new Peaks(peaks);
+    }
+
+    //getter
+    public int getChannels() {
+        return peaks.length;
+    }
+
+    public int getColumns() {
+        return peaks.length == 0 ? 0 : peaks[0].length;
+    }
+
+    /**
+     * @param channel index of the channel
+     * @param column index of the column
+     * @return highest absolute value in the column
+     */
+    public float get(int channel, int column) {
+        return peaks[channel][column];
+    }
+}
@@ -0,0 +1,173 @@
+package wave;
+
+/**
+ * The Resampler converts audio data between sample rates with a polyphase windowed sinc filter.
+ * The ratio of the rates is reduced to L / M (e.g. 44100 -> 48000 is 160 / 147). The filter bank with L phases
+ * is computed once in the constructor, every output sample then needs one dot product with TAPS input samples.
+ * Data is processed in blocks of any size, the output is aligned with the input (no delay):
+ * after all input, flush has to be called to get the last samples.
+ * @author Tobias Haider
+ */
+public class Resampler {
+    private static final int TAPS = 32;         //taps per phase when upsampling
+    private static final double BETA = 8.6;     //kaiser window, about 90 dB stop band attenuation
+    private static final double CUTOFF = 0.94;  //passband edge relative to the lower nyquist frequency
+
+    private final int up, down;     //L and M
+    private final int taps;
+    private final float[][] bank;   //[phase][tap]
+    private final int channels;
+    private final float[][] work;   //input history per channel, work[c][0] is input frame start
+    private int used = 0;           //valid frames in work
+    private long start;             //absolute index of the first frame in work
+    private long produced = 0;      //output frames so far
+    private long consumed = 0;      //input frames so far
+
+    /**
+     * Constructor for Resampler Object
+     * @param inRate input sample rate in Hz
+     * @param outRate output sample rate in Hz
+     * @param channels number of channels
+     */
+    public Resampler(int inRate, int outRate, int channels) {
+        int gcd = gcd(inRate, outRate);
+        this.up = outRate / gcd;
+        this.down = inRate / gcd;
+        this.channels = channels;
+        double fc = CUTOFF * Math.min(1.0, (double) up / down);
+        this.taps = 2 * (int) Math.ceil(TAPS / 2.0 / Math.min(1.0, (double) up / down));
+        this.bank = new float[up][taps];
+        double i0Beta = besselI0(BETA);
+        for(int p = 0; p < up; p++) {
+            for(int t = 0; t < taps; t++) {
+                double x = (double) p / up + t - taps / 2.0;    //distance between output and input sample
+                double w = x / (taps / 2.0);
+                double window = Math.abs(w) >= 1 ? 0 : besselI0(BETA * Math.sqrt(1 - w * w)) / i0Beta;
+                double sinc = x == 0 ? 1 : Math.sin(Math.PI * fc * x) / (Math.PI * fc * x);
+                bank[p][t] = (float) (fc * sinc * window);
+            }
+        }
+        this.work = new float[channels][taps + 4096];
+        this.start = -taps;     //history before the first frame is silence
+        this.used = taps;
+    }
+
+    /**
+     * @param inFrames number of input frames
+     * @return maximal number of output frames produced by process for this input
+     */
+    public int maxOutput(int inFrames) {
+        return (int) ((long) (inFrames + taps) * up / down) + 2;
+    }
+
+    /**
+     * @param inFrames total number of input frames
+     * @return number of output frames for the whole input
+     */
+    public long outputLength(long inFrames) {
+        return (inFrames * up + down - 1) / down;
+    }
+
+    /**
+     * Resamples a block
+     * @param in input samples per channel
+     * @param inOff first input frame
+     * @param inFrames number of input frames
+     * @param out output samples per channel (at least maxOutput(inFrames) frames after outOff)
+     * @param outOff first output frame
+     * @return number of output frames written
+     */
+    public int process(float[][] in, int inOff, int inFrames, float[][] out, int outOff) {
+        int written = 0;
+        while(inFrames > 0) {
+            int n = Math.min(inFrames, work[0].length - used);
+            for(int c = 0; c < channels; c++) {
+                System.arraycopy(in[c], inOff, work[c], used, n);
+            }
+            used += n;
+            consumed += n;
+            inOff += n;
+            inFrames -= n;
+            written += produce(out, outOff + written, Long.MAX_VALUE);
+        }
+        return written;
+    }
+
+    /**
+     * Produces the last output frames, which need input after the end
+     * @param out output samples per channel
+     * @param outOff first output frame
+     * @return number of output frames written
+     */
+    public int flush(float[][] out, int outOff) {
+        float[][] silence = new float[channels][taps];
+        long total = outputLength(consumed);
+        int written = 0;
+        while(produced < total) {
+            int n = Math.min(taps, work[0].length - used);
+            for(int c = 0; c < channels; c++) {
+                System.arraycopy(silence[c], 0, work[c], used, n);
+            }
+            used += n;
+            written += produce(out, outOff + written, total);
+        }
+        return written;
+    }
+
+    /**
+     * Computes all output frames whose input is available and discards input which is no longer needed
+     */
+    private int produce(float[][] out, int outOff, long limit) {
+        int written = 0;
+        while(produced < limit) {
+            long pos = produced * down;
+            long base = pos / up + taps / 2;    //newest input frame needed
+            int phase = (int) (pos % up);
+            int last = (int) (base - start);
+            if(last >= used) {
+                break;
+            }
+            float[] h = bank[phase];
+            for(int c = 0; c < channels; c++) {
+                float[] x = work[c];
+                float sum = 0;
+                for(int t = 0; t < taps; t++) {
+                    sum += h[t] * x[last - t];
+                }
+                out[c][outOff + written] = sum;
+            }
+            written++;
+            produced++;
+        }
+        //keep the last taps frames as history
+        int keep = Math.min(used, taps + 1);
+        int drop = used - keep;
+        if(drop > 0) {
+            for(int c = 0; c < channels; c++) {
+                System.arraycopy(work[c], drop, work[c], 0, keep);
+            }
+            used = keep;
+            start += drop;
+        }
+        return written;
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    /**
+     * Modified bessel function of the first kind, order 0 (for the kaiser window)
+     */
+    private static double besselI0(double x) {
+        double sum = 1, term = 1;
+        for(int k = 1; k < 50; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if(term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+}
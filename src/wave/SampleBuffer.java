@@ -0,0 +1,167 @@
+package wave;
+
+import mod.Track;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * The SampleBuffer class holds audio data in planar layout: one contiguous float array per channel.
+ * Interleaved bytes are only decoded when the buffer is created and encoded again in toTrack,
+ * so per-channel operations (pan, channel gain, mono downmix) are simple loops over one array
+ * without stepping over the other channels.
+ * 1.0 is full scale, values are not clamped until the data is encoded.
+ * A buffer holds less than 2^31 frames per channel (more than 12 hours at 48 kHz).
+ * @author Tobias Haider
+ */
+public class SampleBuffer {
+    private final float rate;           //in Hz e.g. 44100
+    private final float[][] channels;   //[channel][frame]
+
+    /**
+     * Constructor for SampleBuffer Object
+     * @param rate sample rate in Hz
+     * @param channels samples per channel (all of the same length, not copied)
+     */
+    public SampleBuffer(float rate, float[][] channels) {
+        this.rate = rate;
+        this.channels = channels;
+    }
+
+    /**
+     * This is a Factory method to create a SampleBuffer from a Track
+     * @param t Track to decode (any PCM format)
+     * @return SampleBuffer Object
+     */
+    public static SampleBuffer of(Track t) {
+        SampleCodec codec = SampleCodec.forFormat(t.getFormat());
+        int frameSize = codec.getFrameSize();
+        if(t.getFrames() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Track is too long for a SampleBuffer");
+        }
+        int frames = (int) t.getFrames();
+        float[][] data = new float[codec.getChannels()][frames];
+        int blockFrames = 8192;
+        byte[] bytes = new byte[blockFrames * frameSize];
+        for(int pos = 0; pos < frames; pos += blockFrames) {
+            int n = Math.min(blockFrames, frames - pos);
+            t.read((long) pos * frameSize, bytes, 0, n * frameSize);
+            codec.decode(bytes, 0, data, pos, n);
+        }
+        return new SampleBuffer(t.getFormat().getSampleRate(), data);
+    }
+
+    /**
+     * This method interleaves the channels and converts them to a Track Object
+     * @param name Name of the Track
+     * @param format Audio format of the Track (channel count has to match)
+     * @return Track Object
+     */
+    public Track toTrack(String name, AudioFormat format) {
+        SampleCodec codec = SampleCodec.forFormat(format);
+        if(codec.getChannels() != channels.length) {
+            throw new IllegalArgumentException("Format needs " + channels.length + " channels");
+        }
+        int frames = getFrames();
+        byte[] data = new byte[frames * codec.getFrameSize()];
+        codec.encode(channels, 0, data, 0, frames);
+        return new Track(name, data, format, true);
+    }
+
+    /**
+     * Pans a stereo buffer with the constant power law (sine/cosine gains),
+     * scaled so the louder channel keeps its level and the center position changes nothing
+     * @param position -1 = left, 0 = center, 1 = right
+     * @return this
+     */
+    public SampleBuffer pan(double position) {
+        if(channels.length != 2) {
+            throw new IllegalArgumentException("Only stereo can be panned");
+        }
+        double angle = (Math.max(-1, Math.min(1, position)) + 1) * Math.PI / 4;
+        double louder = Math.max(Math.cos(angle), Math.sin(angle));
+        gain(0, Math.cos(angle) / louder);
+        gain(1, Math.sin(angle) / louder);
+        return this;
+    }
+
+    /**
+     * Multiplies all samples of one channel
+     * @param channel index of the channel
+     * @param gain factor (1 = unchanged)
+     * @return this
+     */
+    public SampleBuffer gain(int channel, double gain) {
+        float[] c = channels[channel];
+        float g = (float) gain;
+        for(int i = 0; i < c.length; i++) {
+            c[i] *= g;
+        }
+        return this;
+    }
+
+    /**
+     * Adds the samples of another buffer, the result is as long as the longer buffer
+     * @param other buffer to add (channel c of this gets channel c of other, modulo its channels)
+     * @param gain factor for other (-1 subtracts)
+     * @return this if it is long enough, a new longer buffer otherwise
+     */
+    public SampleBuffer add(SampleBuffer other, double gain) {
+        SampleBuffer result = this;
+        if(other.getFrames() > getFrames()) {
+            float[][] longer = new float[channels.length][other.getFrames()];
+            for(int c = 0; c < channels.length; c++) {
+                System.arraycopy(channels[c], 0, longer[c], 0, channels[c].length);
+            }
+            result = new SampleBuffer(rate, longer);
+        }
+        float g = (float) gain;
+        for(int c = 0; c < channels.length; c++) {
+            float[] x = other.channels[c % other.channels.length];
+            float[] y = result.channels[c];
+            for(int i = 0; i < x.length; i++) {
+                y[i] += g * x[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Mixes all channels to one channel (mean of all channels)
+     * @return new mono SampleBuffer
+     */
+    public SampleBuffer downmix() {
+        float[] mono = channels[0].clone();
+        for(int c = 1; c < channels.length; c++) {
+            float[] x = channels[c];
+            for(int i = 0; i < mono.length; i++) {
+                mono[i] += x[i];
+            }
+        }
+        float scale = 1f / channels.length;
+        for(int i = 0; i < mono.length; i++) {
+            mono[i] *= scale;
+        }
+        return new SampleBuffer(rate, new float[][] {mono});
+    }
+
+    //getter
+    public float getRate() {
+        return rate;
+    }
+
+    public int getChannels() {
+        return channels.length;
+    }
+
+    public int getFrames() {
+        return channels.length == 0 ? 0 : channels[0].length;
+    }
+
+    /**
+     * @param channel index of the channel
+     * @return samples of the channel (not a copy)
+     */
+    public float[] getChannel(int channel) {
+        return channels[channel];
+    }
+}
@@ -0,0 +1,400 @@
+package wave;
+
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * A SampleCodec converts interleaved PCM audio bytes of one AudioFormat to planar float samples and back.
+ * 1.0 is full scale. Integer formats clamp values outside [-1, 1] when encoding,
+ * float formats keep them (headroom for chained processing, see floatFormat).
+ * Common layouts (16 bit mono/stereo, 24 bit, 32 bit, 8 bit unsigned, 32 bit float, little endian)
+ * have their own small subclass with a simple loop the JIT can optimize;
+ * every other PCM layout (big endian, unusual sizes, padded frames, 64 bit float) uses the slower generic codec.
+ * Use forFormat to get the right codec.
+ * @author Tobias Haider
+ */
+public abstract class SampleCodec {
+    protected final int channels;
+    protected final int frameSize;
+
+    private SampleCodec(int channels, int frameSize) {
+        this.channels = channels;
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * Factory method choosing the codec for a format
+     * @param f audio format (PCM signed, unsigned or float)
+     * @return SampleCodec
+     * @throws IllegalArgumentException if the format is not PCM
+     */
+    public static SampleCodec forFormat(AudioFormat f) {
+        AudioFormat.Encoding e = f.getEncoding();
+        int bits = f.getSampleSizeInBits();
+        int channels = f.getChannels();
+        boolean little = !f.isBigEndian() || bits == 8;
+        boolean packed = f.getFrameSize() == channels * bits / 8;    //no padding in the frame
+        if(e.equals(AudioFormat.Encoding.PCM_SIGNED) && little && packed) {
+            switch(bits) {
+                case 16:
+                    return channels == 2 ? new Pcm16Stereo() : new Pcm16(channels);
+                case 24:
+                    return new Pcm24(channels);
+                case 32:
+                    return new Pcm32(channels);
+            }
+        }
+        if(e.equals(AudioFormat.Encoding.PCM_UNSIGNED) && bits == 8 && packed) {
+            return new Pcm8(channels);
+        }
+        if(e.equals(AudioFormat.Encoding.PCM_FLOAT) && bits == 32 && little && packed) {
+            return new Float32(channels);
+        }
+        return new Generic(f);
+    }
+
+    /**
+     * @param f audio format
+     * @return true if the samples are floating point values
+     */
+    public static boolean isFloat(AudioFormat f) {
+        return f.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT);
+    }
+
+    /**
+     * Working format for processing: 32 bit float with the rate and channels of f.
+     * Tracks in this format are never clamped or requantized between operations.
+     * @param f audio format
+     * @return 32 bit float little endian format
+     */
+    public static AudioFormat floatFormat(AudioFormat f) {
+        return new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, f.getSampleRate(), 32, f.getChannels(),
+                4 * f.getChannels(), f.getSampleRate(), false);
+    }
+
+    /**
+     * @return number of channels
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return bytes per frame
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Converts interleaved audio bytes to float samples per channel
+     * @param src audio bytes
+     * @param srcOff start in src
+     * @param dst samples per channel
+     * @param dstOff first frame in dst
+     * @param frames number of frames
+     */
+    public abstract void decode(byte[] src, int srcOff, float[][] dst, int dstOff, int frames);
+
+    /**
+     * Converts float samples per channel to interleaved audio bytes
+     * @param src samples per channel
+     * @param srcOff first frame in src
+     * @param dst audio bytes
+     * @param dstOff start in dst
+     * @param frames number of frames
+     */
+    public abstract void encode(float[][] src, int srcOff, byte[] dst, int dstOff, int frames);
+
+    /**
+     * Rounds and clamps a sample to an integer range
+     * @param value sample (1.0 = full scale)
+     * @param scale value of full scale (e.g. 32768)
+     * @return integer sample
+     */
+    static int quantize(float value, float scale) {
+        int v = Math.round(value * scale);
+        return Math.max((int) -scale, Math.min((int) scale - 1, v));
+    }
+
+    /**
+     * 16 bit signed little endian with two channels (most common case, both channels in one loop)
+     */
+    private static final class Pcm16Stereo extends SampleCodec {
+        Pcm16Stereo() {
+            super(2, 4);
+        }
+
+        @Override
+        public void decode(byte[] src, int srcOff, float[][] dst, int dstOff, int frames) {
+            float[] left = dst[0], right = dst[1];
+            for(int i = 0, j = srcOff; i < frames; i++, j += 4) {
+                left[dstOff + i] = ((src[j + 1] << 8) | (255 & src[j])) / 32768f;
+                right[dstOff + i] = ((src[j + 3] << 8) | (255 & src[j + 2])) / 32768f;
+            }
+        }
+
+        @Override
+        public void encode(float[][] src, int srcOff, byte[] dst, int dstOff, int frames) {
+            float[] left = src[0], right = src[1];
+            for(int i = 0, j = dstOff; i < frames; i++, j += 4) {
+                int l = quantize(left[srcOff + i], 32768f);
+                int r = quantize(right[srcOff + i], 32768f);
+                dst[j] = (byte) l;
+                dst[j + 1] = (byte) (l >> 8);
+                dst[j + 2] = (byte) r;
+                dst[j + 3] = (byte) (r >> 8);
+            }
+        }
+    }
+
+    /**
+     * 16 bit signed little endian, any number of channels
+     */
+    private static final class Pcm16 extends SampleCodec {
+        Pcm16(int channels) {
+            super(channels, 2 * channels);
+        }
+
+        @Override
+        public void decode(byte[] src, int srcOff, float[][] dst, int dstOff, int frames) {
+            for(int c = 0; c < channels; c++) {
+                float[] d = dst[c];
+                for(int i = 0, j = srcOff + 2 * c; i < frames; i++, j += frameSize) {
+                    d[dstOff + i] = ((src[j + 1] << 8) | (255 & src[j])) / 32768f;
+                }
+            }
+        }
+
+        @Override
+        public void encode(float[][] src, int srcOff, byte[] dst, int dstOff, int frames) {
+            for(int c = 0; c < channels; c++) {
+                float[] s = src[c];
+                for(int i = 0, j = dstOff + 2 * c; i < frames; i++, j += frameSize) {
+                    int v = quantize(s[srcOff + i], 32768f);
+                    dst[j] = (byte) v;
+                    dst[j + 1] = (byte) (v >> 8);
+                }
+            }
+        }
+    }
+
+    /**
+     * 24 bit signed little endian
+     */
+    private static final class Pcm24 extends SampleCodec {
+        Pcm24(int channels) {
+            super(channels, 3 * channels);
+        }
+
+        @Override
+        public void decode(byte[] src, int srcOff, float[][] dst, int dstOff, int frames) {
+            for(int c = 0; c < channels; c++) {
+                float[] d = dst[c];
+                for(int i = 0, j = srcOff + 3 * c; i < frames; i++, j += frameSize) {
+                    d[dstOff + i] = ((src[j + 2] << 16) | ((255 & src[j + 1]) << 8) | (255 & src[j])) / 8388608f;
+                }
+            }
+        }
+
+        @Override
+        public void encode(float[][] src, int srcOff, byte[] dst, int dstOff, int frames) {
+            for(int c = 0; c < channels; c++) {
+                float[] s = src[c];
+                for(int i = 0, j = dstOff + 3 * c; i < frames; i++, j += frameSize) {
+                    int v = quantize(s[srcOff + i], 8388608f);
+                    dst[j] = (byte) v;
+                    dst[j + 1] = (byte) (v >> 8);
+                    dst[j + 2] = (byte) (v >> 16);
+                }
+            }
+        }
+    }
+
+    /**
+     * 32 bit signed little endian
+     */
+    private static final class Pcm32 extends SampleCodec {
+        Pcm32(int channels) {
+            super(channels, 4 * channels);
+        }
+
+        @Override
+        public void decode(byte[] src, int srcOff, float[][] dst, int dstOff, int frames) {
+            for(int c = 0; c < channels; c++) {
+                float[] d = dst[c];
+                for(int i = 0, j = srcOff + 4 * c; i < frames; i++, j += frameSize) {
+                    int v = (src[j + 3] << 24) | ((255 & src[j + 2]) << 16) | ((255 & src[j + 1]) << 8) | (255 & src[j]);
+                    d[dstOff + i] = v / 2147483648f;
+                }
+            }
+        }
+
+        @Override
+        public void encode(float[][] src, int srcOff, byte[] dst, int dstOff, int frames) {
+            for(int c = 0; c < channels; c++) {
+                float[] s = src[c];
+                for(int i = 0, j = dstOff + 4 * c; i < frames; i++, j += frameSize) {
+                    double value = Math.max(-1.0, Math.min(1.0, s[srcOff + i]));
+                    int v = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.round(value * 2147483648.0)));
+                    dst[j] = (byte) v;
+                    dst[j + 1] = (byte) (v >> 8);
+                    dst[j + 2] = (byte) (v >> 16);
+                    dst[j + 3] = (byte) (v >> 24);
+                }
+            }
+        }
+    }
+
+    /**
+     * 8 bit unsigned (standard for 8 bit .wav files)
+     */
+    private static final class Pcm8 extends SampleCodec {
+        Pcm8(int channels) {
+            super(channels, channels);
+        }
+
+        @Override
+        public void decode(byte[] src, int srcOff, float[][] dst, int dstOff, int frames) {
+            for(int c = 0; c < channels; c++) {
+                float[] d = dst[c];
+                for(int i = 0, j = srcOff + c; i < frames; i++, j += frameSize) {
+                    d[dstOff + i] = ((255 & src[j]) - 128) / 128f;
+                }
+            }
+        }
+
+        @Override
+        public void encode(float[][] src, int srcOff, byte[] dst, int dstOff, int frames) {
+            for(int c = 0; c < channels; c++) {
+                float[] s = src[c];
+                for(int i = 0, j = dstOff + c; i < frames; i++, j += frameSize) {
+                    dst[j] = (byte) (quantize(s[srcOff + i], 128f) + 128);
+                }
+            }
+        }
+    }
+
+    /**
+     * 32 bit float little endian (no clamping)
+     */
+    private static final class Float32 extends SampleCodec {
+        Float32(int channels) {
+            super(channels, 4 * channels);
+        }
+
+        @Override
+        public void decode(byte[] src, int srcOff, float[][] dst, int dstOff, int frames) {
+            for(int c = 0; c < channels; c++) {
+                float[] d = dst[c];
+                for(int i = 0, j = srcOff + 4 * c; i < frames; i++, j += frameSize) {
+                    int bits = (src[j + 3] << 24) | ((255 & src[j + 2]) << 16) | ((255 & src[j + 1]) << 8) | (255 & src[j]);
+                    d[dstOff + i] = Float.intBitsToFloat(bits);
+                }
+            }
+        }
+
+        @Override
+        public void encode(float[][] src, int srcOff, byte[] dst, int dstOff, int frames) {
+            for(int c = 0; c < channels; c++) {
+                float[] s = src[c];
+                for(int i = 0, j = dstOff + 4 * c; i < frames; i++, j += frameSize) {
+                    int bits = Float.floatToRawIntBits(s[srcOff + i]);
+                    dst[j] = (byte) bits;
+                    dst[j + 1] = (byte) (bits >> 8);
+                    dst[j + 2] = (byte) (bits >> 16);
+                    dst[j + 3] = (byte) (bits >> 24);
+                }
+            }
+        }
+    }
+
+    /**
+     * Any PCM layout: signed or unsigned integers of 1 to 4 bytes and 32 or 64 bit floats, either endianness.
+     */
+    private static final class Generic extends SampleCodec {
+        private final int bytes;
+        private final int slot;        //bytes per sample in the frame, including padding
+        private final int offset;      //start of the sample bytes in a slot
+        private final boolean bigEndian;
+        private final boolean unsigned;
+        private final boolean floating;
+
+        Generic(AudioFormat f) {
+            super(f.getChannels(), f.getFrameSize());
+            this.bytes = (f.getSampleSizeInBits() + 7) / 8;
+            this.slot = frameSize / Math.max(1, channels);
+            this.bigEndian = f.isBigEndian();
+            this.offset = bigEndian ? 0 : slot - bytes;    //padding holds the least significant bytes (like WAVE_FORMAT_EXTENSIBLE)
+            this.unsigned = f.getEncoding().equals(AudioFormat.Encoding.PCM_UNSIGNED);
+            this.floating = f.getEncoding().equals(AudioFormat.Encoding.PCM_FLOAT);
+            boolean supported = floating ? (bytes == 4 || bytes == 8)
+                    : (unsigned || f.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED)) && bytes >= 1 && bytes <= 4;
+            if(!supported || slot < bytes) {
+                throw new IllegalArgumentException("Unsupported audio format " + f);
+            }
+        }
+
+        /**
+         * Reads the raw bits of one sample
+         */
+        private long read(byte[] src, int pos) {
+            long v = 0;
+            for(int b = 0; b < bytes; b++) {
+                int idx = bigEndian ? pos + b : pos + bytes - 1 - b;
+                v = (v << 8) | (255 & src[idx]);
+            }
+            return v;
+        }
+
+        /**
+         * Writes the raw bits of one sample
+         */
+        private void write(byte[] dst, int pos, long v) {
+            for(int b = 0; b < bytes; b++) {
+                int idx = bigEndian ? pos + bytes - 1 - b : pos + b;
+                dst[idx] = (byte) (v >> (8 * b));
+            }
+        }
+
+        @Override
+        public void decode(byte[] src, int srcOff, float[][] dst, int dstOff, int frames) {
+            double scale = Math.pow(2, 8 * bytes - 1);
+            for(int c = 0; c < channels; c++) {
+                float[] d = dst[c];
+                for(int i = 0, j = srcOff + slot * c + offset; i < frames; i++, j += frameSize) {
+                    long raw = read(src, j);
+                    if(floating) {
+                        d[dstOff + i] = bytes == 4 ? Float.intBitsToFloat((int) raw) : (float) Double.longBitsToDouble(raw);
+                    } else if(unsigned) {
+                        d[dstOff + i] = (float) ((raw - scale) / scale);
+                    } else {
+                        long signed = (raw << (64 - 8 * bytes)) >> (64 - 8 * bytes);    //sign extension
+                        d[dstOff + i] = (float) (signed / scale);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void encode(float[][] src, int srcOff, byte[] dst, int dstOff, int frames) {
+            double scale = Math.pow(2, 8 * bytes - 1);
+            if(frameSize > bytes * channels) {
+                Arrays.fill(dst, dstOff, dstOff + frames * frameSize, (byte) 0);    //clear padding
+            }
+            for(int c = 0; c < channels; c++) {
+                float[] s = src[c];
+                for(int i = 0, j = dstOff + slot * c + offset; i < frames; i++, j += frameSize) {
+                    float value = s[srcOff + i];
+                    if(floating) {
+                        write(dst, j, bytes == 4 ? Float.floatToRawIntBits(value) : Double.doubleToRawLongBits(value));
+                    } else {
+                        long v = Math.max((long) -scale, Math.min((long) scale - 1, Math.round(value * scale)));
+                        write(dst, j, unsigned ? v + (long) scale : v);
+                    }
+                }
+            }
+        }
+    }
+}
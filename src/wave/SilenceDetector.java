@@ -0,0 +1,98 @@
+package wave;
+
+import java.util.Arrays;
+
+/**
+ * The SilenceDetector finds silent parts of a recording in one streaming pass.
+ * The level is the RMS over a sliding window of all channels. The sum of squares is updated
+ * with the newest sample and the sample leaving the window, so every frame costs O(1) regardless of the window length.
+ * Hysteresis avoids fluttering around the threshold: silence starts below the threshold,
+ * but only ends when the level rises HYSTERESIS times above it.
+ * Silent parts shorter than the minimal duration are ignored, the others are reported without a padding
+ * at both ends, so the beginning and the end of words are kept.
+ * @author Tobias Haider
+ */
+public class SilenceDetector {
+    private static final double HYSTERESIS = 2;     //level to end a silence relative to the threshold (+6 dB)
+
+    private final double threshold;     //mean square to start a silence
+    private final double release;       //mean square to end a silence
+    private final int minFrames;
+    private final int padding;
+    private final double[] window;      //mean square of the last frames (ring buffer)
+    private double sum = 0;             //sum of the window
+    private int index = 0;              //next position in the window
+    private long frame = 0;             //frames processed so far
+    private long silenceStart = -1;     //first frame of the current silence, -1 if loud
+    private long[] ranges = new long[16];
+    private int count = 0;              //number of values in ranges
+
+    /**
+     * Constructor for SilenceDetector Object
+     * @param threshold RMS level below which the signal is silent (1.0 = full scale)
+     * @param windowFrames length of the RMS window in frames
+     * @param minFrames minimal length of a silence in frames (padding included)
+     * @param padding frames kept at both ends of a silence
+     */
+    public SilenceDetector(double threshold, int windowFrames, int minFrames, int padding) {
+        this.threshold = threshold * threshold;
+        this.release = this.threshold * HYSTERESIS * HYSTERESIS;
+        this.window = new double[Math.max(1, windowFrames)];
+        this.minFrames = Math.max(minFrames, 2 * padding + 1);
+        this.padding = padding;
+    }
+
+    /**
+     * Processes a block of samples
+     * @param block samples per channel
+     * @param off first frame
+     * @param frames number of frames
+     */
+    public void process(float[][] block, int off, int frames) {
+        double scale = 1.0 / block.length;
+        int n = window.length;
+        for(int i = off; i < off + frames; i++, frame++) {
+            double square = 0;
+            for(float[] c : block) {
+                square += c[i] * c[i];
+            }
+            square *= scale;
+            sum += square - window[index];
+            window[index] = square;
+            index = index + 1 == n ? 0 : index + 1;
+            double level = Math.max(0, sum / n);    //rounding can make the sum slightly negative
+
+            if(silenceStart < 0) {
+                if(level < threshold && frame + 1 >= n) {
+                    silenceStart = frame + 1 - n;   //the whole window is quiet
+                }
+            } else if(level > release) {
+                addRange(silenceStart, frame);
+                silenceStart = -1;
+            }
+        }
+    }
+
+    /**
+     * Ends the detection, a silence reaching the end is reported too
+     * @return silent ranges as start, end pairs in frames (end exclusive), without the padding
+     */
+    public long[] finish() {
+        if(silenceStart >= 0) {
+            addRange(silenceStart, frame + padding);    //no padding needed after the end
+            silenceStart = -1;
+        }
+        return Arrays.copyOf(ranges, count);
+    }
+
+    private void addRange(long start, long end) {
+        if(end - start < minFrames) {
+            return;
+        }
+        if(count + 2 > ranges.length) {
+            ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+        }
+        ranges[count++] = start == 0 ? 0 : start + padding;   //no padding needed before the start
+        ranges[count++] = end - padding;
+    }
+}
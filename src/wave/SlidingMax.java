@@ -0,0 +1,58 @@
+package wave;
+
+/**
+ * The SlidingMax returns the maximum of the last window values of a stream.
+ * It keeps a monotonic deque: candidates in the order they arrived with decreasing values.
+ * A new value removes all smaller candidates from the back (they can never be the maximum again),
+ * the front is removed when it leaves the window. Every value is added and removed once,
+ * so the cost is O(1) per value (amortized) regardless of the window length.
+ * @author Tobias Haider
+ */
+public class SlidingMax {
+    private final int window;
+    private final float[] values;   //candidates (ring buffer), decreasing from head
+    private final long[] index;     //stream index of every candidate
+    private int head = 0;           //position of the maximum
+    private int size = 0;           //number of candidates
+    private long count = 0;         //values added so far
+
+    /**
+     * Constructor for SlidingMax Object
+     * @param window number of values the maximum is taken of
+     */
+    public SlidingMax(int window) {
+        this.window = Math.max(1, window);
+        this.values = new float[this.window];
+        this.index = new long[this.window];
+    }
+
+    /**
+     * Adds the next value of the stream
+     * @param v value
+     * @return maximum of the last window values (v included)
+     */
+    public float add(float v) {
+        int n = values.length;
+        while(size > 0 && values[(head + size - 1) % n] <= v) {
+            size--;
+        }
+        if(size > 0 && index[head] <= count - window) {    //front left the window
+            head = head + 1 == n ? 0 : head + 1;
+            size--;
+        }
+        int tail = (head + size) % n;
+        values[tail] = v;
+        index[tail] = count++;
+        size++;
+        return values[head];
+    }
+
+    /**
+     * Forgets all values
+     */
+    public void reset() {
+        head = 0;
+        size = 0;
+        count = 0;
+    }
+}
@@ -7,7 +7,7 @@ import java.util.Iterator;
 import java.util.function.Function;
 
 /**
- * The Wave class represents sample audio data saved in little endian format.
+ * The Wave class represents sample audio data saved in 16 bit little endian format.
  * A wave object can only be created by using a factory method.
  * @author Daniel Binder
  */
@@ -15,17 +15,20 @@ public class Wave implements Iterable<Integer> {
     private double length;
     private int rate;           //in Hz e.g. 44100
     private int resolution;     //in byte e.g. 2
+    private int channels;       //samples per frame e.g. 2
     private byte[] wave;
 
     /**
      * Constructor for Wave Object
      * @param rate rate of Wave
      * @param resolution resolution of Wave
+     * @param channels channels of Wave
      * @param data Wave data (needs to be little endian)
      */
-    private Wave(int rate, int resolution, byte[] data) {
+    private Wave(int rate, int resolution, int channels, byte[] data) {
         this.rate = rate;
         this.resolution = resolution;
+        this.channels = channels;
         this.wave = data;
         this.length = wave.length;
     }
@@ -38,27 +41,61 @@ public class Wave implements Iterable<Integer> {
     private Wave(Wave other, byte[] data) {
         this.rate = other.rate;
         this.resolution = other.resolution;
+        this.channels = other.channels;
         this.wave = data.clone();
         this.length = wave.length;
     }
 
     /**
      * This is a Factory method to create a Wave from a Track
-     * @param t Track to create Wave from (needs to be little endian)
+     * @param t Track to create Wave from (any PCM format, converted to 16 bit little endian, less than 2 GB)
      * @return Wave Object
      */
     public static Wave createWave(Track t) {
-        return new Wave((int) t.getFormat().getSampleRate(), 2, t.getData().clone());
+        AudioFormat f = t.getFormat();
+        return new Wave((int) f.getSampleRate(), 2, f.getChannels(), transcode(t.getData(), f, pcm16(f)));     //getData already returns a copy
     }
 
     /**
      * This method converts a Wave Object to a Track Object
      * @param name Name of the Track
-     * @param format Audio format of the Track
+     * @param format Audio format of the Track (the 16 bit data is converted if needed)
      * @return Track Object
      */
     public Track toTrack(String name, AudioFormat format) {
-        return new Track(name, wave, format, true);
+        return new Track(name, transcode(wave, pcm16(format), format), format, true);
+    }
+
+    /**
+     * @param f audio format
+     * @return 16 bit signed little endian format with the rate and channels of f
+     */
+    private static AudioFormat pcm16(AudioFormat f) {
+        return new AudioFormat(f.getSampleRate(), 16, f.getChannels(), true, false);
+    }
+
+    /**
+     * Converts audio bytes between two formats with the same rate and channels
+     * @param data audio bytes in format from
+     * @param from source format
+     * @param to target format
+     * @return data in format to (data itself if the formats match)
+     */
+    private static byte[] transcode(byte[] data, AudioFormat from, AudioFormat to) {
+        if(from.matches(to)) {
+            return data;
+        }
+        SampleCodec decoder = SampleCodec.forFormat(from);
+        SampleCodec encoder = SampleCodec.forFormat(to);
+        int frames = data.length / decoder.getFrameSize();
+        byte[] result = new byte[frames * encoder.getFrameSize()];
+        float[][] block = new float[decoder.getChannels()][4096];
+        for(int f = 0; f < frames; f += 4096) {
+            int n = Math.min(4096, frames - f);
+            decoder.decode(data, f * decoder.getFrameSize(), block, 0, n);
+            encoder.encode(block, 0, result, f * encoder.getFrameSize(), n);
+        }
+        return result;
     }
 
     /**
@@ -68,8 +105,8 @@ public class Wave implements Iterable<Integer> {
      * @return cut Wave object
      */
     public Wave cut(double startTime, double duration) {
-        startTime = lengthFromSeconds(startTime);
-        duration = lengthFromSeconds(duration);
+        startTime = lengthFromSeconds(startTime) * resolution;     //samples to bytes
+        duration = Math.max(0, Math.min(lengthFromSeconds(duration) * resolution, wave.length - startTime));
 
         byte[] data = new byte[wave.length - ((int) duration)];
 
@@ -230,7 +267,7 @@ public class Wave implements Iterable<Integer> {
     }
 
     public double getLengthInSec() {
-        return (2 * length) / (rate * resolution);
+        return length / ((double) rate * resolution * channels);
     }
 
     public byte[] getWave() {
@@ -238,22 +275,22 @@ public class Wave implements Iterable<Integer> {
     }
 
     /**
-     * Calculates wave length from seconds
+     * Calculates the number of samples (all channels) from seconds, always whole frames
      * @param seconds seconds to calculate wave from
-     * @return wave.length (array length of data with a given amount of seconds)
+     * @return number of samples played in the given amount of seconds
      */
     double lengthFromSeconds(double seconds) {
-        return (seconds * rate * resolution) / 4;
+        return (double) Math.max(0, (long) (seconds * rate)) * channels;
     }
 
     /**
-     * Calculates seconds from a wave length
+     * Calculates seconds from a number of samples
      * Useful if one counted the amount of values and wants to use that amount in a method
      * @param length amount of values passed
      * @return time passed during that amount of values
      */
     double secondsFromLength(int length) {
-        return (4.0 * length) / (rate * resolution);
+        return (double) length / channels / rate;
     }
 
     public Iterator<Integer> iterator() {
@@ -48,7 +48,7 @@ public class WaveEffect {
             if(cutTimeSave > minDuration) {
                 cutTimeSave = wave.secondsFromLength((int) cutTimeSave);
                 totalTimeSave = wave.secondsFromLength((int) totalTime);
-                result = result.cut(2 * (totalTimeSave - cutTimeSave), 2 * cutTimeSave);
+                result = result.cut(totalTimeSave - cutTimeSave, cutTimeSave);
 
                 found = true;
 